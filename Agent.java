@@ -0,0 +1,166 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+class Agent implements Comparable<Agent> {
+
+    private double[] weights;
+    private int rowsCompleted;
+    private int turnsPlayed;
+    private int numGames;
+    private double rowsSquared; // for the spread of the rows completed per game
+    private boolean stopped; // stopped early by the GA's racing, see GeneticAlgorithm.runGames
+
+    public Agent(double[] populationWeights) {
+        this.weights = populationWeights;
+        reset();
+    }
+
+    public void reset() {
+        this.rowsCompleted = 0;
+        this.turnsPlayed = 0;
+        this.numGames = 0;
+        this.rowsSquared = 0;
+        this.stopped = false;
+    }
+
+    // Marks the agent as dropped from this generation's games, so it ranks below every agent that played them all
+    public void stop() {
+        this.stopped = true;
+    }
+
+    public boolean isStopped() {
+        return this.stopped;
+    }
+
+    public double[] getWeights() {
+        return this.weights;
+    }
+
+    public int getRowsCompleted() {
+        return this.rowsCompleted;
+    }
+
+    public int getTurnsPlayed() {
+        return this.turnsPlayed;
+    }
+
+    public int gamesPlayed() {
+        return this.numGames;
+    }
+
+    public double getAverageRowsCompleted() {
+        return numGames == 0 ? 0 : (double) rowsCompleted / numGames;
+    }
+
+    public double getAverageTurnsPlayed() {
+        return numGames == 0 ? 0 : (double) turnsPlayed / numGames;
+    }
+
+    // Standard error of the average rows completed
+    public double getRowsStandardError() {
+        if (numGames < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = getAverageRowsCompleted();
+        double variance = (rowsSquared - numGames * mean * mean) / (numGames - 1);
+        return Math.sqrt(Math.max(variance, 0) / numGames);
+    }
+
+    public void updateScore(int rowsCompleted, int turnsPlayed) {
+        this.rowsCompleted += rowsCompleted;
+        this.turnsPlayed += turnsPlayed;
+        this.rowsSquared += (double) rowsCompleted * rowsCompleted;
+        numGames ++;
+    }
+
+    public String getResultsString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Average Rows Completed: ");
+        sb.append(rowsCompleted / numGames);
+        sb.append(", Average Turns Played: ");
+        sb.append(turnsPlayed / numGames);
+        sb.append(", Num Games Played: ");
+        sb.append(numGames);
+        return sb.toString();
+    }
+
+    public void setWeights(double[] newWeights) {
+        this.weights = newWeights;
+    }
+
+    // Weights and scores, in the layout read back by read
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(weights.length);
+        for (double w : weights) {
+            out.writeDouble(w);
+        }
+        out.writeInt(rowsCompleted);
+        out.writeInt(turnsPlayed);
+        out.writeInt(numGames);
+        out.writeDouble(rowsSquared);
+    }
+
+    public static Agent read(DataInputStream in) throws IOException {
+        double[] weights = new double[in.readInt()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = in.readDouble();
+        }
+        Agent agent = new Agent(weights);
+        agent.rowsCompleted = in.readInt();
+        agent.turnsPlayed = in.readInt();
+        agent.numGames = in.readInt();
+        agent.rowsSquared = in.readDouble();
+        return agent;
+    }
+
+    public void mutateOneWeight(int index, double modifier) {
+        this.weights[index] *= modifier;
+        this.weights = normaliseWeights(this.weights);
+    }
+
+    private double[] normaliseWeights(double[] weights) {
+        double sumWeights = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sumWeights += Math.abs(weights[i]);
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (weights[i] / sumWeights);
+        }
+        return weights;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        s.append(getResultsString());
+        s.append("\n");
+        for (double d : weights) {
+            s.append(d);
+            s.append(", ");
+        }
+        s.append("\n");
+        return s.toString();
+    }
+
+    @Override
+    // Sorted in increasing order of average rows cleared, with stopped agents before all others since their
+    // averages come from fewer games. Average number of turns survived is used as a tiebreaker
+    public int compareTo(Agent o) {
+        if (this.stopped != o.stopped) {
+            return this.stopped ? -1 : 1;
+        } else if (o.getAverageRowsCompleted() > this.getAverageRowsCompleted()) {
+            return -1;
+        } else if (o.getAverageRowsCompleted() < this.getAverageRowsCompleted()) {
+            return 1;
+        } else {
+            if (o.getAverageTurnsPlayed() > this.getAverageTurnsPlayed()) {
+                return -1;
+            } else if (o.getAverageTurnsPlayed() < this.getAverageTurnsPlayed()) {
+                return 1;
+            } else {
+                return 0;
+            }
+        }
+    }
+}
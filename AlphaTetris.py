@@ -11,49 +11,63 @@ from collections import Counter
 from fractions import Fraction
 
 # python 2.x/3.x specific checks
-try:
-    from Queue import Queue
-except ImportError:
-    from queue import Queue
-
 try:
     xrange
 except NameError:
     xrange = range
 
-class GameWorker(threading.Thread):
+class EvaluationServer(object):
     """
-    Worker class for handling the calling of the java tetris game.
-    Consumes work from the queue when available and returns
-    the result through a callback method.
+    Client for the long lived `java PlayerSkeleton serve` process.
+    The JVM is started once per run; every request asks it for a number of games
+    with one weight vector and each finished game comes back as its own result
+    line, which is handed to the callback from a reader thread. A request the
+    server rejects plays no games and is handed to error_callback instead.
     """
 
-    def __init__(self, lock, game_queue, running, callback):
-        threading.Thread.__init__(self)
-        self.daemon = True
-        self.lock = lock
-        self.game_queue = game_queue
-        self.running = running
+    def __init__(self, threads, callback, error_callback):
         self.callback = callback
-
-    def _run_game(self, weights):
-        command = ["java", "PlayerSkeleton"] + [str(x) for x in weights]
-        process = subprocess.Popen(command, stdout=subprocess.PIPE)
-        rows_cleared, turns = process.stdout.read().decode("utf-8").strip("\r\n").split(" ")
-        return int(rows_cleared)
-
-    def run(self):
-        while self.running.is_set():
-            idx, weights = self.game_queue.get()
-            rows_cleared = self._run_game(weights)
-            with self.lock:
-                self.callback(idx, rows_cleared)
-            self.game_queue.task_done()
+        self.error_callback = error_callback
+        self.lock = threading.Lock()
+        self.process = subprocess.Popen(["java", "PlayerSkeleton", "serve", str(threads)],
+                                        stdin=subprocess.PIPE, stdout=subprocess.PIPE)
+        self.features = self._read_features()
+        self.reader = threading.Thread(target=self._read_results)
+        self.reader.daemon = True
+        self.reader.start()
+
+    def request_games(self, idx, weights, games, max_turns=0):
+        line = "%s %s %s %s\n" % (idx, games, max_turns, " ".join(repr(float(w)) for w in weights))
+        with self.lock:
+            self.process.stdin.write(line.encode("utf-8"))
+            self.process.stdin.flush()
+
+    def _read_features(self):
+        """asks for the weight layout, a list of (name, sign) with sign -, +, * or 0"""
+        self.process.stdin.write(b"features\n")
+        self.process.stdin.flush()
+        parts = self.process.stdout.readline().decode("utf-8").split()
+        if not parts or parts[0] != "features":
+            raise RuntimeError("unexpected reply to features request: %r" % " ".join(parts))
+        return [tuple(feature.rsplit(":", 1)) for feature in parts[1:]]
+
+    def _read_results(self):
+        for line in iter(self.process.stdout.readline, b""):
+            parts = line.decode("utf-8").split(None, 2)
+            if len(parts) > 1 and parts[1] == "error":
+                self.error_callback(parts[0], parts[2].strip() if len(parts) > 2 else "")
+                continue
+            idx, rows_cleared, turns = parts
+            self.callback(int(idx), int(rows_cleared))
+
+    def close(self):
+        self.process.stdin.close()
+        self.process.wait()
 
 class AlphaTetris():
     """Genetic Algorithm to optimise weights for heuristics in PlayerSkeleton.java"""
 
-    workers_pool = 8 #threads
+    workers_pool = 8 #threads in the java evaluation server
     population_size = 500 # number of agents
     games = 10 # no of games per agent
     selection = 0.1 # random pool size to select best parents from
@@ -61,43 +75,56 @@ class AlphaTetris():
     mutation_rate = 0.05 # mutation rate
     mutation_delta = 0.2 # % range of mutation adjustment
 
-    num_weights = 5
+    # weight ranges by sign, as reported by the evaluation server from FeatureRegistry.java
+    sign_ranges = {"-": (-1, 0), "+": (0, 1), "*": (-1, 1), "0": (0, 0)}
 
     logging.basicConfig(filename='%s.log' % time.ctime().replace(" ","_").replace(":","-"), level=logging.INFO)
     logging.getLogger().addHandler(logging.StreamHandler())
 
     def __init__(self):
-        self.queue = Queue()
-        self.running = threading.Event()
-        self.lock = threading.Lock()
-        self.workers = []
-        self._spawn_workers()
+        self.done = threading.Condition()
+        self._pending = 0
+        self.server = EvaluationServer(self.workers_pool, self._server_callback, self._server_error)
+        self.signs = [sign for name, sign in self.server.features]
+        self.num_weights = len(self.signs)
         self.population = self._seed_population()
 
-    def _worker_callback(self, idx, rows_cleared):
-        self._results[idx] += rows_cleared
-        self._total_rows_cleared += rows_cleared
-
-    def _spawn_workers(self):
-        """spawns the threaded worker class instances"""
-        self.running.set()
-        for x in xrange(self.workers_pool):
-            worker = GameWorker(self.lock, self.queue, self.running, self._worker_callback)
-            worker.start()
-            self.workers.append(worker)
+    def _server_callback(self, idx, rows_cleared):
+        with self.done:
+            self._results[idx] += rows_cleared
+            self._total_rows_cleared += rows_cleared
+            self._pending -= 1
+            if self._pending == 0:
+                self.done.notify_all()
+
+    def _server_error(self, idx, message):
+        """a rejected request plays none of its games, so stop waiting for them"""
+        logging.error("Evaluation server rejected the games of agent %s: %s" % (idx, message))
+        with self.done:
+            self._pending -= self.games
+            if self._pending == 0:
+                self.done.notify_all()
 
     def _queue_games(self, population):
-        """puts the work into the queue for the worker instances to consume"""
-        [map(self.queue.put, enumerate(population)) for game in xrange(self.games)]
+        """asks the evaluation server for self.games games of every agent"""
+        with self.done:
+            self._pending += len(population) * self.games
+        for idx, weights in enumerate(population):
+            self.server.request_games(idx, weights, self.games)
+
+    def _wait_for_games(self):
+        with self.done:
+            while self._pending > 0:
+                self.done.wait()
 
     def _normalize(self, weights):
         """normalize values to 1. if all weights are 0 return 0.5 (for crossover average weighted fitness)"""
         sum_weights = sum(map(abs, weights))
-        return map(lambda w: sum_weights > 0 and (float(w) / sum_weights) or 0.5, weights)
+        return [sum_weights > 0 and (float(w) / sum_weights) or 0.5 for w in weights]
 
     def _generate_weights(self):
-        """generates a random vector of length num_weights that sums to 1.0"""
-        weights = [random.uniform(-1, 1) for x in xrange(self.num_weights)]
+        """generates a random vector of length num_weights that sums to 1.0, each weight with its feature's sign"""
+        weights = [random.uniform(*self.sign_ranges[sign]) for sign in self.signs]
         return self._normalize(weights)
 
     def _seed_population(self):
@@ -147,7 +174,7 @@ class AlphaTetris():
             self._results = Counter()
             self._total_rows_cleared = 0
             self._queue_games(self.population)
-            self.queue.join()
+            self._wait_for_games()
 
             ranks = sorted(xrange(self.population_size), key=self._results.get)
             self._report(ranks)
@@ -155,4 +182,5 @@ class AlphaTetris():
 
 if __name__ == '__main__':
     ap = AlphaTetris()
-    ap.optimize_weights(100) 
\ No newline at end of file
+    ap.optimize_weights(100)
+    ap.server.close() 
\ No newline at end of file
@@ -0,0 +1,403 @@
+import alphatetris.BenchmarkSuite;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+// Micro benchmarks for the engine and the move search, run with
+//     java Benchmark [-time SECONDS] [-csv FILE] [-baseline FILE] [FILTER]
+// Every benchmark is warmed up, then timed over several iterations, reporting
+// throughput and the allocation rate of the benchmark thread. -csv saves the
+// results and -baseline compares against a previously saved file, so an engine
+// change can be measured against the tree before it. FILTER only runs the
+// benchmarks whose name contains it.
+//
+// All positions come from one fixed-seed game played with DEFAULT_WEIGHTS, so
+// runs are comparable between trees.
+//
+// The JMH module in jmh/ runs the same benchmarks through alphatetris.BenchmarkSuite,
+// with forked JVMs, blackholes and the gc profiler; use it for numbers that have to be
+// trusted and this runner for a quick comparison against a baseline.
+public class Benchmark implements BenchmarkSuite {
+
+    private static final long SEED = 3243;
+    private static final int GAME_TURNS = 2000;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int MEASURE_ITERATIONS = 5;
+
+    // one unit of work, returning something derived from its result so the JIT keeps it
+    interface Op {
+        long run();
+    }
+
+    private final ArrayList<String> names = new ArrayList<String>();
+    private final ArrayList<Op> ops = new ArrayList<Op>();
+
+    // the recorded game
+    private final int[][] moves;
+    private final int[][] rows;
+    private final int[][] tops;
+    private final int[] pieces;
+    private final int[][][] fields;
+    private final IncrementalFeatures[] bases;
+
+    private static volatile long sink;
+
+    public Benchmark() {
+        // replay the same game on both engines to capture the positions in both layouts
+        BitboardState bitboard = new BitboardState(SEED);
+        State state = new State(SEED);
+        ArrayList<int[]> moveList = new ArrayList<int[]>();
+        ArrayList<int[]> rowList = new ArrayList<int[]>();
+        ArrayList<int[]> topList = new ArrayList<int[]>();
+        ArrayList<Integer> pieceList = new ArrayList<Integer>();
+        ArrayList<int[][]> fieldList = new ArrayList<int[][]>();
+        while (!bitboard.hasLost() && bitboard.getTurnNumber() < GAME_TURNS) {
+            int[] move = bitboard.legalMoves()[PlayerSkeleton.pickMove(bitboard, bitboard.legalMoves(),
+                    PlayerSkeleton.DEFAULT_WEIGHTS)];
+            rowList.add(bitboard.getRows().clone());
+            topList.add(bitboard.getTop().clone());
+            pieceList.add(bitboard.getNextPiece());
+            int[][] field = new int[State.ROWS][];
+            for (int r = 0; r < State.ROWS; r++) {
+                field[r] = state.getField()[r].clone();
+            }
+            fieldList.add(field);
+            moveList.add(move);
+            bitboard.makeMove(move);
+            state.makeMove(move);
+        }
+        // the last move may lose, leave it out so replays never end the game
+        int n = moveList.size() - (bitboard.hasLost() ? 1 : 0);
+        moves = moveList.subList(0, n).toArray(new int[n][]);
+        rows = rowList.subList(0, n).toArray(new int[n][]);
+        tops = topList.subList(0, n).toArray(new int[n][]);
+        fields = fieldList.subList(0, n).toArray(new int[n][][]);
+        pieces = new int[n];
+        bases = new IncrementalFeatures[n];
+        for (int i = 0; i < n; i++) {
+            pieces[i] = pieceList.get(i);
+            bases[i] = new IncrementalFeatures();
+            bases[i].recompute(rows[i], tops[i]);
+        }
+        register();
+    }
+
+    // The benchmark called name, for harnesses outside the default package
+    @Override
+    public LongSupplier benchmark(String name) {
+        int i = names.indexOf(name);
+        if (i < 0) {
+            throw new IllegalArgumentException("No benchmark called " + name + ", there are " + names);
+        }
+        final Op op = ops.get(i);
+        return op::run;
+    }
+
+    private void add(String name, Op op) {
+        names.add(name);
+        ops.add(op);
+    }
+
+    private void register() {
+        add("State.makeMove", new Op() {
+            State s = new State(SEED);
+            int turn = 0;
+
+            public long run() {
+                if (turn == moves.length) {
+                    s = new State(SEED);
+                    turn = 0;
+                }
+                s.makeMove(moves[turn][State.ORIENT], moves[turn][State.SLOT]);
+                turn++;
+                return s.getRowsCleared();
+            }
+        });
+        add("State.makeMove.flat", new Op() {
+            State s = new State(new SeededPieceSource(SEED), true);
+            int turn = 0;
+
+            public long run() {
+                if (turn == moves.length) {
+                    s.reset(SEED);
+                    turn = 0;
+                }
+                s.makeMove(moves[turn][State.ORIENT], moves[turn][State.SLOT]);
+                turn++;
+                return s.getRowsCleared();
+            }
+        });
+        add("BitboardState.makeMove", new Op() {
+            BitboardState s = new BitboardState(SEED);
+            int turn = 0;
+
+            public long run() {
+                if (turn == moves.length) {
+                    s = new BitboardState(SEED);
+                    turn = 0;
+                }
+                s.makeMove(moves[turn][State.ORIENT], moves[turn][State.SLOT]);
+                turn++;
+                return s.getRowsCleared();
+            }
+        });
+        add("PlayerSkeleton.pickMove", new Op() {
+            SearchScratch scratch = new SearchScratch();
+            int i = 0;
+
+            public long run() {
+                i = (i + 1) % moves.length;
+                return PlayerSkeleton.pickMove(rows[i], tops[i], bases[i], pieces[i],
+                        BitboardState.legalMoves(pieces[i]), PlayerSkeleton.DEFAULT_WEIGHTS, scratch);
+            }
+        });
+        for (final String kernel : new String[] { "scalar", "vector" }) {
+            final PlacementKernel placements = PlacementKernel.load(kernel);
+            if (placements == null) {
+                continue;
+            }
+            add("PlacementKernel." + kernel, new FieldOp() {
+                double[] scores = new double[PlacementKernel.MAX_MOVES];
+
+                long on(int i) {
+                    placements.scoreAll(rows[i], tops[i], bases[i], pieces[i], PlayerSkeleton.DEFAULT_WEIGHTS,
+                            scores);
+                    return (long) scores[0];
+                }
+            });
+        }
+        add("PlayerSkeleton.getRowBreaks(int[][])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getRowBreaks(fields[i]);
+            }
+        });
+        add("PlayerSkeleton.getColumnBreaks(int[][])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getColumnBreaks(fields[i]);
+            }
+        });
+        add("PlayerSkeleton.getNumberOfHoles(int[][])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getNumberOfHoles(tops[i], fields[i]);
+            }
+        });
+        add("PlayerSkeleton.getWellHole(int[][])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getWellHole(fields[i]);
+            }
+        });
+        add("PlayerSkeleton.getRowBreaks(int[])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getRowBreaks(rows[i]);
+            }
+        });
+        add("PlayerSkeleton.getColumnBreaks(int[])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getColumnBreaks(rows[i]);
+            }
+        });
+        add("PlayerSkeleton.getNumberOfHoles(int[])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getNumberOfHoles(rows[i]);
+            }
+        });
+        add("PlayerSkeleton.getWellHole(int[])", new FieldOp() {
+            long on(int i) {
+                return PlayerSkeleton.getWellHole(rows[i]);
+            }
+        });
+        add("Features.extract", new FieldOp() {
+            int[] out = new int[Features.COUNT];
+
+            long on(int i) {
+                Features.extract(rows[i], tops[i], 0, 0, out);
+                return out[Features.HOLES];
+            }
+        });
+        add("IncrementalFeatures.recompute", new FieldOp() {
+            IncrementalFeatures features = new IncrementalFeatures();
+
+            long on(int i) {
+                features.recompute(rows[i], tops[i]);
+                return features.get(Features.HOLES);
+            }
+        });
+        add("TranspositionTable.hash", new FieldOp() {
+            long on(int i) {
+                return TranspositionTable.hash(rows[i]);
+            }
+        });
+        add("TranspositionTable.get", new FieldOp() {
+            // sized so nearly every recorded position stays in the table, this measures hits
+            TranspositionTable table = new TranspositionTable(4 * moves.length);
+            {
+                for (int i = 0; i < moves.length; i++) {
+                    table.put(TranspositionTable.hash(rows[i]), i);
+                }
+            }
+
+            long on(int i) {
+                return (long) table.get(TranspositionTable.hash(rows[i]));
+            }
+        });
+        add("game.state.fixedSeed." + GAME_TURNS, new Op() {
+            public long run() {
+                return PlayerSkeleton.run(PlayerSkeleton.DEFAULT_WEIGHTS, false, GAME_TURNS, true, SEED)[0];
+            }
+        });
+        add("game.fixedSeed." + GAME_TURNS, new Op() {
+            public long run() {
+                return PlayerSkeleton.runBitboard(PlayerSkeleton.DEFAULT_WEIGHTS, GAME_TURNS, SEED)[0];
+            }
+        });
+    }
+
+    // cycles through the recorded positions
+    abstract class FieldOp implements Op {
+        int i = 0;
+
+        public long run() {
+            i = (i + 1) % moves.length;
+            return on(i);
+        }
+
+        abstract long on(int i);
+    }
+
+    // ==============================================
+    // Measurement
+    // ==============================================
+
+    // { ops per second, bytes allocated per op }
+    private static double[] measure(Op op, double seconds) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long iterationNanos = (long) (seconds * 1e9);
+
+        // size batches so that the clock is read about once a millisecond
+        int batch = 1;
+        long value = 0;
+        while (true) {
+            long start = System.nanoTime();
+            for (int i = 0; i < batch; i++) {
+                value += op.run();
+            }
+            if (System.nanoTime() - start > 1000000 || batch >= (1 << 24)) {
+                break;
+            }
+            batch *= 2;
+        }
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            value += iterate(op, batch, iterationNanos)[1];
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long totalOps = 0;
+        long totalNanos = 0;
+        for (int i = 0; i < MEASURE_ITERATIONS; i++) {
+            long[] result = iterate(op, batch, iterationNanos);
+            totalOps += result[0];
+            totalNanos += result[2];
+            value += result[1];
+        }
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        sink = value;
+        return new double[] { totalOps * 1e9 / totalNanos, (double) allocated / totalOps };
+    }
+
+    // { ops, value, nanos }
+    private static long[] iterate(Op op, int batch, long iterationNanos) {
+        long ops = 0;
+        long value = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++) {
+                value += op.run();
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationNanos);
+        return new long[] { ops, value, elapsed };
+    }
+
+    private static Map<String, Double> readBaseline(String file) throws IOException {
+        Map<String, Double> baseline = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length >= 2 && !parts[0].equals("benchmark")) {
+                    baseline.put(parts[0], Double.parseDouble(parts[1]));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return baseline;
+    }
+
+    public static void main(String[] args) throws IOException {
+        double seconds = 1;
+        String csv = null;
+        String baselineFile = null;
+        String filter = "";
+        for (int i = 0; i < args.length; i++) {
+            boolean option = args[i].equals("-time") || args[i].equals("-csv") || args[i].equals("-baseline");
+            if (option && i + 1 == args.length) {
+                System.err.println(args[i] + " needs a value");
+                System.err.println("Usage: java Benchmark [-time SECONDS] [-csv FILE] [-baseline FILE] [FILTER]");
+                System.exit(2);
+            }
+            if (args[i].equals("-time")) {
+                seconds = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-csv")) {
+                csv = args[++i];
+            } else if (args[i].equals("-baseline")) {
+                baselineFile = args[++i];
+            } else {
+                filter = args[i];
+            }
+        }
+        Map<String, Double> baseline = baselineFile == null ? null : readBaseline(baselineFile);
+
+        Benchmark benchmark = new Benchmark();
+        PrintWriter csvOut = csv == null ? null : new PrintWriter(new FileWriter(csv));
+        if (csvOut != null) {
+            csvOut.println("benchmark,ops_per_sec,ns_per_op,bytes_per_op,alloc_mb_per_sec");
+        }
+        System.out.printf("%-45s %14s %12s %12s %14s%s%n", "Benchmark", "ops/s", "ns/op", "B/op", "alloc MB/s",
+                baseline == null ? "" : "   vs baseline");
+        for (int i = 0; i < benchmark.names.size(); i++) {
+            String name = benchmark.names.get(i);
+            if (!name.contains(filter)) {
+                continue;
+            }
+            double[] result = measure(benchmark.ops.get(i), seconds);
+            double opsPerSecond = result[0];
+            double bytesPerOp = result[1];
+            double allocationRate = opsPerSecond * bytesPerOp / (1 << 20);
+            String comparison = "";
+            if (baseline != null && baseline.containsKey(name)) {
+                comparison = String.format("   %.2fx", opsPerSecond / baseline.get(name));
+            }
+            System.out.printf("%-45s %14.1f %12.1f %12.1f %14.2f%s%n", name, opsPerSecond, 1e9 / opsPerSecond,
+                    bytesPerOp, allocationRate, comparison);
+            if (csvOut != null) {
+                csvOut.printf("%s,%f,%f,%f,%f%n", name, opsPerSecond, 1e9 / opsPerSecond, bytesPerOp, allocationRate);
+            }
+        }
+        if (csvOut != null) {
+            csvOut.close();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Compact Tetris engine that stores each row of the board as a COLS-bit mask
+// (bit c set means column c is filled). It follows the same move contract as
+// State - makeMove(orient, slot), getTop(), getRowsCleared() - but a full row
+// is a single compare and a line clear is one array shift.
+public class BitboardState {
+    public static final int COLS = State.COLS;
+    public static final int ROWS = State.ROWS;
+    public static final int FULL_ROW = (1 << COLS) - 1;
+
+    private final int[] rows = new int[ROWS];
+    //top row+1 of each column, 0 means empty
+    private final int[] top = new int[COLS];
+
+    private int turn = 0;
+    private int cleared = 0;
+    private boolean lost = false;
+    private int nextPiece;
+    // the piece after nextPiece, known in advance
+    private int previewPiece;
+    private PieceSource pieces;
+
+    // heuristic terms of the board, kept in step with rows and top
+    private final IncrementalFeatures features = new IncrementalFeatures();
+    // TranspositionTable.hash of rows, updated by makeMove
+    private long hash;
+
+    public BitboardState() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    // the same seed always plays the same sequence of pieces
+    public BitboardState(long seed) {
+        this(new SeededPieceSource(seed));
+    }
+
+    public BitboardState(PieceSource pieces) {
+        this.pieces = pieces;
+        nextPiece = randomPiece();
+        previewPiece = randomPiece();
+        features.recompute(rows, top);
+    }
+
+    // Starts a new game on the same storage, drawing pieces on from the same source
+    public void reset() {
+        Arrays.fill(rows, 0);
+        Arrays.fill(top, 0);
+        hash = 0;
+        turn = 0;
+        cleared = 0;
+        lost = false;
+        nextPiece = randomPiece();
+        previewPiece = randomPiece();
+        features.recompute(rows, top);
+    }
+
+    // Starts a new game with the pieces of seed, as new BitboardState(seed) would
+    public void reset(long seed) {
+        if (pieces instanceof SeededPieceSource) {
+            ((SeededPieceSource) pieces).reseed(seed);
+        } else {
+            pieces = new SeededPieceSource(seed);
+        }
+        reset();
+    }
+
+    public void reset(PieceSource pieces) {
+        this.pieces = pieces;
+        reset();
+    }
+
+    public int[] getRows() {
+        return rows;
+    }
+
+    public int[] getTop() {
+        return top;
+    }
+
+    public IncrementalFeatures getFeatures() {
+        return features;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public int getNextPiece() {
+        return nextPiece;
+    }
+
+    public int getPreviewPiece() {
+        return previewPiece;
+    }
+
+    public boolean hasLost() {
+        return lost;
+    }
+
+    public int getRowsCleared() {
+        return cleared;
+    }
+
+    public int getTurnNumber() {
+        return turn;
+    }
+
+    public int[][] legalMoves() {
+        return State.legalMoves(nextPiece);
+    }
+
+    // the tables of State, so move indices are interchangeable
+    public static int[][] legalMoves(int piece) {
+        return State.legalMoves(piece);
+    }
+
+    //make a move based on the move index - its order in the legalMoves list
+    public void makeMove(int move) {
+        makeMove(State.legalMoves(nextPiece)[move]);
+    }
+
+    public void makeMove(int[] move) {
+        makeMove(move[State.ORIENT], move[State.SLOT]);
+    }
+
+    //returns false if you lose - true otherwise
+    public boolean makeMove(int orient, int slot) {
+        turn++;
+        int placement = Placements.index(nextPiece, orient, slot);
+        int height = Placements.landingHeight(top, placement);
+        int rowsCleared = place(rows, top, placement, height, rows, top);
+        if (rowsCleared < 0) {
+            lost = true;
+            return false;
+        }
+        if (rowsCleared == 0) {
+            // only the piece's cells changed
+            int[] table = Placements.table();
+            for (int h = 0; h < table[placement + Placements.HEIGHT]; h++) {
+                hash ^= TranspositionTable.rowKey(height + h, table[placement + Placements.ROW_MASKS + h]);
+            }
+        } else {
+            hash = TranspositionTable.hash(rows);
+        }
+        cleared += rowsCleared;
+        features.update(rows, top, placement, height, rowsCleared);
+        nextPiece = previewPiece;
+        previewPiece = randomPiece();
+        return true;
+    }
+
+    //random integer, returns 0-6
+    private int randomPiece() {
+        return pieces.nextPiece();
+    }
+
+    // ==============================================
+    // Board operations shared with the move evaluator
+    // ==============================================
+
+    // Row the bottom of the piece comes to rest on
+    public static int landingHeight(int[] top, int piece, int orient, int slot) {
+        return Placements.landingHeight(top, Placements.index(piece, orient, slot));
+    }
+
+    // Drops a piece onto rows/top and writes the resulting board into outRows/outTop,
+    // which may be the same arrays. Returns the number of rows cleared, or -1 if the
+    // piece would stick out of the board, in which case the output is left untouched.
+    public static int place(int[] rows, int[] top, int piece, int orient, int slot, int[] outRows, int[] outTop) {
+        int placement = Placements.index(piece, orient, slot);
+        return place(rows, top, placement, Placements.landingHeight(top, placement), outRows, outTop);
+    }
+
+    // Same as above for a Placements entry whose landing height is already known
+    public static int place(int[] rows, int[] top, int placement, int height, int[] outRows, int[] outTop) {
+        int[] table = Placements.table();
+        int pieceHeight = table[placement + Placements.HEIGHT];
+        if (height + pieceHeight >= ROWS) {
+            return -1;
+        }
+        if (outRows != rows) {
+            System.arraycopy(rows, 0, outRows, 0, ROWS);
+        }
+        if (outTop != top) {
+            System.arraycopy(top, 0, outTop, 0, COLS);
+        }
+
+        for (int h = 0; h < pieceHeight; h++) {
+            outRows[height + h] |= table[placement + Placements.ROW_MASKS + h];
+        }
+        int slot = table[placement + Placements.SLOT];
+        for (int c = 0; c < table[placement + Placements.WIDTH]; c++) {
+            outTop[slot + c] = height + table[placement + Placements.TOP + c];
+        }
+
+        // check for full rows - starting at the top
+        int rowsCleared = 0;
+        for (int r = height + pieceHeight - 1; r >= height; r--) {
+            if (outRows[r] == FULL_ROW) {
+                System.arraycopy(outRows, r + 1, outRows, r, ROWS - 1 - r);
+                outRows[ROWS - 1] = 0;
+                rowsCleared++;
+            }
+        }
+        if (rowsCleared > 0) {
+            recomputeTop(outRows, outTop);
+        }
+        return rowsCleared;
+    }
+
+    // Converts a State field into row masks
+    public static void toRows(int[][] field, int[] rows) {
+        for (int r = 0; r < ROWS; r++) {
+            int mask = 0;
+            for (int c = 0; c < COLS; c++) {
+                if (field[r][c] != 0) {
+                    mask |= 1 << c;
+                }
+            }
+            rows[r] = mask;
+        }
+    }
+
+    // Rebuilds the column heights after rows have been shifted down
+    public static void recomputeTop(int[] rows, int[] top) {
+        Arrays.fill(top, 0);
+        int remaining = FULL_ROW;
+        for (int r = ROWS - 1; r >= 0 && remaining != 0; r--) {
+            int hit = rows[r] & remaining;
+            while (hit != 0) {
+                top[Integer.numberOfTrailingZeros(hit)] = r + 1;
+                hit &= hit - 1;
+            }
+            remaining &= ~rows[r];
+        }
+    }
+}
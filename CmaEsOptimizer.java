@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+// CMA-ES (covariance matrix adaptation evolution strategy, as in Hansen's tutorial)
+// over the weight vector, an alternative to GeneticAlgorithm. Every generation samples
+// lambda weight vectors from a multivariate normal, plays them on the pool exactly as
+// the GA plays its agents, and moves the mean towards the best half while the
+// covariance learns which weights trade off against each other and the step size
+// adapts from the length of the evolution path.
+//
+// Only the direction of a weight vector matters to the move choice, so candidates
+// are played with their weights normalised like the GA's, after FeatureRegistry.constrain
+// sets weights of the wrong sign or of unselected features to 0. The distribution
+// itself is left unconstrained, but candidates are ranked by their fitness less a
+// penalty on the distance constrain moved them (boundary handling by repair and
+// penalty, as in Hansen's papers), so the mean is pulled back inside the constraints
+// instead of drifting across the flat region outside them. All candidates of a
+// generation play the same piece sequences.
+public class CmaEsOptimizer {
+
+    private final int n = PlayerSkeleton.WEIGHTS_LENGTH;
+    private final int lambda;
+    private final int mu;
+    private final double[] recombination;
+    private final double muEff;
+
+    // learning rates, named as in the tutorial
+    private final double cSigma;
+    private final double dSigma;
+    private final double cc;
+    private final double c1;
+    private final double cMu;
+    // expected length of a standard normal vector
+    private final double chiN;
+
+    private final double[] mean;
+    private double sigma;
+    private final double[] pSigma;
+    private final double[] pc;
+    private final double[][] covariance;
+    // covariance = eigenvectors * diag(scales^2) * eigenvectors^T
+    private final double[][] eigenvectors;
+    private final double[] scales;
+
+    private final int games;
+    private final int maxTurns;
+    private final long seed;
+    private final Random random;
+    private final ForkJoinPool pool;
+    private final GameMetrics metrics;
+
+    // lambda candidates per generation (0 for the default 4 + 3 ln n, otherwise at least
+    // 2 so the best half is not empty), each playing games games of at most maxTurns
+    // turns (0 for no limit)
+    public CmaEsOptimizer(int lambda, int games, int maxTurns, long seed, ForkJoinPool pool) {
+        if (lambda != 0 && lambda < 2) {
+            throw new IllegalArgumentException("population of " + lambda + ", CMA-ES needs at least 2");
+        }
+        this.lambda = lambda > 0 ? lambda : 4 + (int) (3 * Math.log(n));
+        this.mu = this.lambda / 2;
+        this.games = games;
+        this.maxTurns = maxTurns;
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.pool = pool;
+        this.metrics = new GameMetrics(pool);
+        metrics.register();
+
+        recombination = new double[mu];
+        double sum = 0;
+        for (int i = 0; i < mu; i++) {
+            recombination[i] = Math.log(mu + 0.5) - Math.log(i + 1);
+            sum += recombination[i];
+        }
+        double sumSquares = 0;
+        for (int i = 0; i < mu; i++) {
+            recombination[i] /= sum;
+            sumSquares += recombination[i] * recombination[i];
+        }
+        muEff = 1 / sumSquares;
+
+        cSigma = (muEff + 2) / (n + muEff + 5);
+        dSigma = 1 + 2 * Math.max(0, Math.sqrt((muEff - 1) / (n + 1)) - 1) + cSigma;
+        cc = (4 + muEff / n) / (n + 4 + 2 * muEff / n);
+        c1 = 2 / ((n + 1.3) * (n + 1.3) + muEff);
+        cMu = Math.min(1 - c1, 2 * (muEff - 2 + 1 / muEff) / ((n + 2) * (n + 2) + muEff));
+        chiN = Math.sqrt(n) * (1 - 1.0 / (4 * n) + 1.0 / (21 * n * n));
+
+        mean = normalise(PlayerSkeleton.DEFAULT_WEIGHTS.clone());
+        sigma = 0.1;
+        pSigma = new double[n];
+        pc = new double[n];
+        covariance = new double[n][n];
+        eigenvectors = new double[n][n];
+        scales = new double[n];
+        for (int i = 0; i < n; i++) {
+            covariance[i][i] = 1;
+            eigenvectors[i][i] = 1;
+            scales[i] = 1;
+        }
+    }
+
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    // Runs generations generations and returns the normalised mean
+    public double[] optimize(int generations, GenerationLog log) {
+        log.record(new GenerationLog.Record("start")
+                .field("optimizer", "cmaes")
+                .field("seed", seed)
+                .field("generations", generations)
+                .field("maxTurns", maxTurns)
+                .field("population", lambda)
+                .field("games", games));
+        for (int generation = 1; generation <= generations; generation++) {
+            long start = System.currentTimeMillis();
+            metrics.startGeneration(generation);
+            double[][] candidates = sample();
+            double[] fitness = evaluate(candidates, generation);
+            double[] ranking = penalise(candidates, fitness);
+            Integer[] order = new Integer[lambda];
+            for (int i = 0; i < lambda; i++) {
+                order[i] = i;
+            }
+            // best first
+            Arrays.sort(order, (a, b) -> Double.compare(ranking[b], ranking[a]));
+            update(candidates, order, generation);
+
+            log.record(new GenerationLog.Record("generation")
+                    .field("generation", generation)
+                    .field("maxTurns", maxTurns)
+                    .field("games", lambda * games)
+                    .field("bestAverageRows", fitness[order[0]])
+                    .field("medianAverageRows", fitness[order[lambda / 2]])
+                    .field("sigma", sigma)
+                    .field("meanRepair", Math.sqrt(repairDistance(mean)))
+                    .field("millis", System.currentTimeMillis() - start)
+                    .field("best", played(candidates[order[0]]))
+                    .field("mean", played(mean)));
+        }
+        return played(mean);
+    }
+
+    // lambda candidates mean + sigma * eigenvectors * (scales . z), z standard normal
+    private double[][] sample() {
+        double[][] candidates = new double[lambda][n];
+        double[] z = new double[n];
+        for (int k = 0; k < lambda; k++) {
+            for (int i = 0; i < n; i++) {
+                z[i] = scales[i] * random.nextGaussian();
+            }
+            for (int i = 0; i < n; i++) {
+                double y = 0;
+                for (int j = 0; j < n; j++) {
+                    y += eigenvectors[i][j] * z[j];
+                }
+                candidates[k][i] = mean[i] + sigma * y;
+            }
+        }
+        return candidates;
+    }
+
+    // Average rows cleared by each candidate over the generation's shared piece sequences
+    private double[] evaluate(double[][] candidates, int generation) {
+        GameTask[] tasks = new GameTask[lambda * games];
+        for (int game = 0; game < games; game++) {
+            PieceSequence pieces = new PieceSequence(gameSeed(generation, game), maxTurns == 0 ? 0 : maxTurns + 2);
+            for (int k = 0; k < lambda; k++) {
+                Agent agent = new Agent(played(candidates[k]));
+                tasks[game * lambda + k] = new GameTask(k, agent, maxTurns, pieces.source(), metrics);
+            }
+        }
+        int[][] results = new int[tasks.length][];
+        pool.invoke(new GameRound(tasks, results, 0, tasks.length));
+
+        double[] fitness = new double[lambda];
+        for (int[] result : results) {
+            fitness[result[0]] += (double) result[1] / games;
+        }
+        return fitness;
+    }
+
+    // Fitness less spread * |x - constrain(x)|^2 / sigma^2: a candidate one step size
+    // outside the constraints loses the generation's spread between its best and median
+    // fitness (at least one row), so the penalty keeps the scale of the fitness
+    private double[] penalise(double[][] candidates, double[] fitness) {
+        double[] sorted = fitness.clone();
+        Arrays.sort(sorted);
+        double spread = Math.max(1, sorted[lambda - 1] - sorted[lambda / 2]);
+        double[] ranking = new double[lambda];
+        for (int k = 0; k < lambda; k++) {
+            ranking[k] = fitness[k] - spread * repairDistance(candidates[k]) / (sigma * sigma);
+        }
+        return ranking;
+    }
+
+    // squared distance between a sample and its repair by FeatureRegistry.constrain
+    private static double repairDistance(double[] sample) {
+        double[] repaired = FeatureRegistry.constrain(sample.clone());
+        double distance = 0;
+        for (int i = 0; i < sample.length; i++) {
+            distance += (sample[i] - repaired[i]) * (sample[i] - repaired[i]);
+        }
+        return distance;
+    }
+
+    // same derivation as GeneticAlgorithm.gameSeed
+    private long gameSeed(int generation, int game) {
+        return SeededPieceSource.mix(seed + SeededPieceSource.mix(((long) generation << 32) | game));
+    }
+
+    private void update(double[][] candidates, Integer[] order, int generation) {
+        double[] old = mean.clone();
+        for (int i = 0; i < n; i++) {
+            mean[i] = 0;
+            for (int k = 0; k < mu; k++) {
+                mean[i] += recombination[k] * candidates[order[k]][i];
+            }
+        }
+        double[] step = new double[n];
+        for (int i = 0; i < n; i++) {
+            step[i] = (mean[i] - old[i]) / sigma;
+        }
+
+        // C^-1/2 step = eigenvectors * diag(1 / scales) * eigenvectors^T * step
+        double[] rotated = new double[n];
+        for (int j = 0; j < n; j++) {
+            for (int i = 0; i < n; i++) {
+                rotated[j] += eigenvectors[i][j] * step[i];
+            }
+            rotated[j] /= scales[j];
+        }
+        double sigmaRate = Math.sqrt(cSigma * (2 - cSigma) * muEff);
+        double pSigmaLength = 0;
+        for (int i = 0; i < n; i++) {
+            double whitened = 0;
+            for (int j = 0; j < n; j++) {
+                whitened += eigenvectors[i][j] * rotated[j];
+            }
+            pSigma[i] = (1 - cSigma) * pSigma[i] + sigmaRate * whitened;
+            pSigmaLength += pSigma[i] * pSigma[i];
+        }
+        pSigmaLength = Math.sqrt(pSigmaLength);
+
+        // stall the covariance path while the step size path is unusually long
+        boolean hSigma = pSigmaLength / Math.sqrt(1 - Math.pow(1 - cSigma, 2 * generation))
+                < (1.4 + 2.0 / (n + 1)) * chiN;
+        double pathRate = Math.sqrt(cc * (2 - cc) * muEff);
+        for (int i = 0; i < n; i++) {
+            pc[i] = (1 - cc) * pc[i] + (hSigma ? pathRate * step[i] : 0);
+        }
+
+        double correction = hSigma ? 0 : c1 * cc * (2 - cc);
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                double rankMu = 0;
+                for (int k = 0; k < mu; k++) {
+                    double[] x = candidates[order[k]];
+                    rankMu += recombination[k] * (x[i] - old[i]) / sigma * (x[j] - old[j]) / sigma;
+                }
+                double value = (1 - c1 - cMu) * covariance[i][j] + correction * covariance[i][j]
+                        + c1 * pc[i] * pc[j] + cMu * rankMu;
+                covariance[i][j] = value;
+                covariance[j][i] = value;
+            }
+        }
+
+        sigma *= Math.exp((cSigma / dSigma) * (pSigmaLength / chiN - 1));
+        decompose();
+    }
+
+    // eigenvectors and scales of covariance, by cyclic Jacobi rotations
+    private void decompose() {
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) {
+            a[i] = covariance[i].clone();
+            Arrays.fill(eigenvectors[i], 0);
+            eigenvectors[i][i] = 1;
+        }
+        for (int sweep = 0; sweep < 50; sweep++) {
+            double offDiagonal = 0;
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    offDiagonal += a[p][q] * a[p][q];
+                }
+            }
+            if (offDiagonal < 1e-30) {
+                break;
+            }
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (a[p][q] == 0) {
+                        continue;
+                    }
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) {
+                        t = 1;
+                    }
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double akp = a[k][p];
+                        double akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = a[p][k];
+                        double aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double vkp = eigenvectors[k][p];
+                        double vkq = eigenvectors[k][q];
+                        eigenvectors[k][p] = c * vkp - s * vkq;
+                        eigenvectors[k][q] = s * vkp + c * vkq;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            scales[i] = Math.sqrt(Math.max(a[i][i], 1e-20));
+        }
+    }
+
+    // the weights a sample plays with
+    private static double[] played(double[] sample) {
+        return normalise(FeatureRegistry.constrain(sample.clone()));
+    }
+
+    // scaled so that the absolute weights sum to 1, like the GA's agents; all zeros
+    // (every weight constrained away) are left as they are
+    static double[] normalise(double[] weights) {
+        double sum = 0;
+        for (double w : weights) {
+            sum += Math.abs(w);
+        }
+        if (sum == 0) {
+            return weights;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] /= sum;
+        }
+        return weights;
+    }
+}
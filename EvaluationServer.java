@@ -0,0 +1,114 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Long lived evaluation process for external optimisers (AlphaTetris.py), started with
+// `java PlayerSkeleton serve [threads]`. The JVM starts and warms up once per run
+// instead of once per game.
+//
+// Each request line is
+//     <id> <games> <max turns> <weight 0> ... <weight n-1>
+// and the server plays the games headless on its thread pool, writing one line per
+// finished game as soon as it completes
+//     <id> <rows cleared> <turns played>
+// A max turns of 0 plays until the game is lost. A request that cannot be parsed plays
+// no games and is answered with one line
+//     <id> error <message>
+// so a client counting the games it expects per id is not left waiting. The request line
+//     features
+// is answered straight away with the weight vector's layout from FeatureRegistry
+//     features <name>:<sign> ...
+// where the sign is -, + or * for a weight that must be negative, positive or may be
+// either, and 0 for a feature left out by -Dtetris.features. The server exits at end
+// of input once every requested game has been reported.
+public class EvaluationServer {
+
+    private final ExecutorService pool;
+    private final Writer out;
+
+    public EvaluationServer(int threads, Writer out) {
+        this.pool = Executors.newFixedThreadPool(threads);
+        this.out = out;
+    }
+
+    public void serve(Reader input) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(input);
+        String line;
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equals("features")) {
+                respond("features " + FeatureRegistry.describe());
+                continue;
+            }
+            try {
+                submit(line);
+            } catch (NumberFormatException e) {
+                String message = e.getMessage() == null ? "malformed request" : e.getMessage();
+                respond(line.split("\\s+")[0] + " error " + message);
+            }
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        out.flush();
+    }
+
+    private void submit(String line) {
+        String[] parts = line.split("\\s+");
+        if (parts.length < 4) {
+            throw new NumberFormatException("expected an id, games, max turns and weights");
+        }
+        final String id = parts[0];
+        int games = Integer.parseInt(parts[1]);
+        final int maxTurns = Integer.parseInt(parts[2]);
+        final double[] weights = new double[parts.length - 3];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Double.parseDouble(parts[i + 3]);
+        }
+        if (weights.length != PlayerSkeleton.WEIGHTS_LENGTH) {
+            throw new NumberFormatException("expected " + PlayerSkeleton.WEIGHTS_LENGTH + " weights");
+        }
+
+        for (int i = 0; i < games; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    int[] results = PlayerSkeleton.runBitboard(weights, maxTurns);
+                    respond(id + " " + results[0] + " " + results[1]);
+                }
+            });
+        }
+    }
+
+    private synchronized void respond(String result) {
+        try {
+            out.write(result);
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        int threads = args.length > 0
+                ? Integer.parseInt(args[0])
+                : Runtime.getRuntime().availableProcessors();
+        EvaluationServer server = new EvaluationServer(threads,
+                new BufferedWriter(new OutputStreamWriter(System.out)));
+        try {
+            server.serve(new InputStreamReader(System.in));
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Two ply expectimax: each placement of the current piece is worth the rows it clears
+// plus the average, over all seven next pieces, of the best reply score. The 7 x 34
+// replies per placement are what make this slow, so the placements are split across
+// a ForkJoinPool and every worker shares one TranspositionTable of expected reply values.
+//
+// Each placement's value is computed independently and the best is picked in move
+// order afterwards, so the parallel search returns the same move as the sequential one.
+//
+// A player keeps its own move values, so use one per thread; the pool may be shared.
+public class ExpectimaxPlayer {
+
+    private static final int TABLE_SIZE = 1 << 16;
+
+    private final double[] weights;
+    private final ForkJoinPool pool;
+
+    // expected best reply of a board
+    private final TranspositionTable table;
+
+    // buffers of whichever thread expands a placement
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private final SearchScratch scratch = new SearchScratch();
+    private final double[] values = new double[PlacementKernel.MAX_MOVES];
+
+    public ExpectimaxPlayer(double[] weights, ForkJoinPool pool) {
+        this(weights, pool, new TranspositionTable(TABLE_SIZE));
+    }
+
+    // table must only hold values computed with these weights
+    public ExpectimaxPlayer(double[] weights, ForkJoinPool pool, TranspositionTable table) {
+        this.weights = weights;
+        this.pool = pool;
+        this.table = table;
+    }
+
+    public TranspositionTable getTable() {
+        return table;
+    }
+
+    public int pickMove(State s, boolean parallel) {
+        scratch.load(s);
+        return pickMove(scratch.rows, scratch.top, s.getNextPiece(), s.legalMoves(), parallel);
+    }
+
+    public int pickMove(BitboardState s, boolean parallel) {
+        return pickMove(s.getRows(), s.getTop(), s.getNextPiece(), s.legalMoves(), parallel);
+    }
+
+    int pickMove(int[] rows, int[] top, int piece, int[][] legalMoves, boolean parallel) {
+        int n = legalMoves.length;
+        if (parallel) {
+            pool.invoke(new Expansion(rows, top, piece, legalMoves, 0, n));
+        } else {
+            for (int i = 0; i < n; i++) {
+                values[i] = value(rows, top, piece, legalMoves[i]);
+            }
+        }
+
+        int best = 0;
+        for (int i = 1; i < n; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Rows cleared by move plus the expected best reply on the board it leaves
+    private double value(int[] rows, int[] top, int piece, int[] move) {
+        Buffers buffers = BUFFERS.get();
+        int cleared = BitboardState.place(rows, top, piece, move[State.ORIENT], move[State.SLOT],
+                buffers.rows, buffers.top);
+        if (cleared < 0) {
+            return PlayerSkeleton.LOSS;
+        }
+        long key = TranspositionTable.hash(buffers.rows);
+        double expected = table.get(key);
+        if (Double.isNaN(expected)) {
+            buffers.features.recompute(buffers.rows, buffers.top);
+            expected = expectedReply(buffers);
+            table.put(key, expected);
+        }
+        return cleared * weights[Features.ROWS_CLEARED] + expected;
+    }
+
+    private double expectedReply(Buffers buffers) {
+        double total = 0;
+        for (int piece = 0; piece < State.N_PIECES; piece++) {
+            double best = Double.NEGATIVE_INFINITY;
+            for (int[] move : BitboardState.legalMoves(piece)) {
+                best = Math.max(best, PlayerSkeleton.evaluateMove(buffers.rows, buffers.top, buffers.features,
+                        piece, move[State.ORIENT], move[State.SLOT], weights, buffers.scratch));
+            }
+            total += best;
+        }
+        return total / State.N_PIECES;
+    }
+
+    // Splits the placements [from, to) in halves until each task values one of them
+    private class Expansion extends RecursiveAction {
+
+        private final int[] rows;
+        private final int[] top;
+        private final int piece;
+        private final int[][] legalMoves;
+        private final int from;
+        private final int to;
+
+        private static final long serialVersionUID = 1L;
+
+        Expansion(int[] rows, int[] top, int piece, int[][] legalMoves, int from, int to) {
+            this.rows = rows;
+            this.top = top;
+            this.piece = piece;
+            this.legalMoves = legalMoves;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                values[from] = value(rows, top, piece, legalMoves[from]);
+            } else if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Expansion(rows, top, piece, legalMoves, from, middle),
+                        new Expansion(rows, top, piece, legalMoves, middle, to));
+            }
+        }
+    }
+
+    // board after a placement and the scratch space to search its replies
+    private static class Buffers {
+        final int[] rows = new int[State.ROWS];
+        final int[] top = new int[State.COLS];
+        final IncrementalFeatures features = new IncrementalFeatures();
+        final SearchScratch scratch = new SearchScratch();
+    }
+
+    // Plays a headless game, returns { rows cleared, turns played }
+    public int[] play(State s, int maxTurns, boolean parallel) {
+        while (!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
+            s.makeMove(pickMove(s, parallel));
+        }
+        return new int[] { s.getRowsCleared(), s.getTurnNumber() };
+    }
+}
@@ -0,0 +1,420 @@
+import java.util.Arrays;
+import java.util.function.DoubleSupplier;
+import java.util.function.Predicate;
+
+// The features the evaluation function weighs, in Features index order, each with the
+// sign its weight must have, its default weight and how it is computed.
+// DEFAULT_WEIGHTS, the random weights of the optimisers, the feature list the
+// evaluation server hands to AlphaTetris.py and what the extractors compute all come
+// from here.
+//
+// Most features are a sum over the board: a RowTerm of every row but the top one, or a
+// ColumnTerm of every column with its neighbours and height. The terms of the selected
+// row features are added up together, each in a LANE_BITS lane of one long, and so are
+// those of the column features; Features.extract sums them in one pass over the rows
+// and one over the columns, and IncrementalFeatures keeps the sums per row and per
+// column, so a placement only recomputes the rows and columns it touches. The landing
+// height, the rows cleared and the pile height are computed by the extractors
+// themselves, at their Features index.
+//
+// A new row or column feature is an entry at the end of FEATURES. FeaturesCheck compares
+// it between the two extractors, as it has no reference implementation. Adding one
+// changes WEIGHTS_LENGTH, so older checkpoints no longer load, and VectorPlacementKernel,
+// which scores the original seven features in SIMD lanes, no longer loads.
+//
+// -Dtetris.features=<name>,<name>,... selects a subset for an experiment: the other
+// features keep weight 0 and the extractors do not write them, so they stay 0 in the
+// feature buffers. At most LANES row and LANES column features can be selected at once.
+public final class FeatureRegistry {
+
+    public enum Sign {
+        NEGATIVE("-"), POSITIVE("+"), ANY("*");
+
+        private final String symbol;
+
+        Sign(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public String symbol() {
+            return symbol;
+        }
+    }
+
+    // What a row feature adds for one row, bit c being column c; the top row is not
+    // counted. Terms are never negative and add up to less than 1 << LANE_BITS.
+    public interface RowTerm {
+        int of(int row);
+    }
+
+    // What a column feature adds for one column, bit r being row r, given the columns on
+    // either side (full columns at the walls) and its height, bounded like a RowTerm
+    public interface ColumnTerm {
+        int of(int left, int column, int right, int height);
+    }
+
+    public static final class Feature {
+
+        private final String name;
+        private final Sign sign;
+        private final double defaultWeight;
+        // at most one of them, neither for the features the extractors compute themselves
+        private final RowTerm rowTerm;
+        private final ColumnTerm columnTerm;
+        private int index;
+
+        private Feature(String name, Sign sign, double defaultWeight, RowTerm rowTerm, ColumnTerm columnTerm) {
+            this.name = name;
+            this.sign = sign;
+            this.defaultWeight = defaultWeight;
+            this.rowTerm = rowTerm;
+            this.columnTerm = columnTerm;
+        }
+
+        // a feature computed by the extractors, at its Features index
+        static Feature builtIn(String name, Sign sign, double defaultWeight) {
+            return new Feature(name, sign, defaultWeight, null, null);
+        }
+
+        static Feature row(String name, Sign sign, double defaultWeight, RowTerm term) {
+            return new Feature(name, sign, defaultWeight, term, null);
+        }
+
+        static Feature column(String name, Sign sign, double defaultWeight, ColumnTerm term) {
+            return new Feature(name, sign, defaultWeight, null, term);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public Sign getSign() {
+            return sign;
+        }
+
+        public double getDefaultWeight() {
+            return defaultWeight;
+        }
+
+        // whether weight satisfies the sign constraint
+        public boolean allows(double weight) {
+            return sign == Sign.ANY || (sign == Sign.NEGATIVE ? weight <= 0 : weight >= 0);
+        }
+    }
+
+    // features per kind that can be selected at once, each summed in a lane of a long
+    static final int LANES = 4;
+    static final int LANE_BITS = 16;
+    static final long LANE_MASK = (1L << LANE_BITS) - 1;
+
+    // the names of the features at the Features indices, which the extractors and
+    // VectorPlacementKernel refer to
+    private static final String[] NAMED = {
+            "landing_height", "rows_cleared", "row_breaks", "column_breaks", "holes", "well_depth", "pile_height",
+    };
+
+    private static final Feature[] FEATURES = {
+            Feature.builtIn("landing_height", Sign.NEGATIVE, -0.11889029514812746),
+            Feature.builtIn("rows_cleared", Sign.POSITIVE, 0.17617469347875242),
+            Feature.row("row_breaks", Sign.NEGATIVE, -0.07049774628211491, IncrementalFeatures::rowBreaks),
+            Feature.column("column_breaks", Sign.NEGATIVE, -0.2284616211183528,
+                    (left, column, right, height) -> IncrementalFeatures.columnBreaks(column)),
+            // every cell below the column's top that is not filled
+            Feature.column("holes", Sign.NEGATIVE, -0.2624911582307603,
+                    (left, column, right, height) -> height - Integer.bitCount(column)),
+            Feature.column("well_depth", Sign.NEGATIVE, -0.09943344141832017,
+                    (left, column, right, height) -> IncrementalFeatures.wellDepth(left, column, right)),
+            Feature.builtIn("pile_height", Sign.NEGATIVE, -0.04405104432357203),
+    };
+
+    static {
+        for (int i = 0; i < FEATURES.length; i++) {
+            FEATURES[i].index = i;
+        }
+        for (int i = 0; i < NAMED.length; i++) {
+            if (i >= FEATURES.length || !FEATURES[i].name.equals(NAMED[i])) {
+                throw new ExceptionInInitializerError(NAMED[i] + " is not at index " + i);
+            }
+        }
+    }
+
+    private static final boolean[] SELECTED = select(System.getProperty("tetris.features"));
+    // indices of the selected features, of those computed by row terms and of those
+    // computed by column terms, in index order
+    private static final int[] SCORED = selected(feature -> true);
+    private static final int[] ROW_FEATURES = selected(feature -> feature.rowTerm != null);
+    private static final int[] COLUMN_FEATURES = selected(feature -> feature.columnTerm != null);
+
+    static {
+        if (ROW_FEATURES.length > LANES || COLUMN_FEATURES.length > LANES) {
+            throw new IllegalArgumentException("tetris.features selects " + ROW_FEATURES.length + " row and "
+                    + COLUMN_FEATURES.length + " column features, at most " + LANES + " of each fit");
+        }
+    }
+
+    // The terms of the selected row and column features in fixed slots, lane k in slot k.
+    // Each slot is called from a call site of its own, so the JIT inlines every term; a
+    // loop over an array of terms would give one call site all of them, and the JIT does
+    // not inline a call site that sees more than two.
+    private static final RowTerm ROW_TERM_0 = rowTerm(0);
+    private static final RowTerm ROW_TERM_1 = rowTerm(1);
+    private static final RowTerm ROW_TERM_2 = rowTerm(2);
+    private static final RowTerm ROW_TERM_3 = rowTerm(3);
+    private static final ColumnTerm COLUMN_TERM_0 = columnTerm(0);
+    private static final ColumnTerm COLUMN_TERM_1 = columnTerm(1);
+    private static final ColumnTerm COLUMN_TERM_2 = columnTerm(2);
+    private static final ColumnTerm COLUMN_TERM_3 = columnTerm(3);
+    // and the indices of their features, -1 for an unused slot
+    private static final int ROW_FEATURE_0 = featureAt(ROW_FEATURES, 0);
+    private static final int ROW_FEATURE_1 = featureAt(ROW_FEATURES, 1);
+    private static final int ROW_FEATURE_2 = featureAt(ROW_FEATURES, 2);
+    private static final int ROW_FEATURE_3 = featureAt(ROW_FEATURES, 3);
+    private static final int COLUMN_FEATURE_0 = featureAt(COLUMN_FEATURES, 0);
+    private static final int COLUMN_FEATURE_1 = featureAt(COLUMN_FEATURES, 1);
+    private static final int COLUMN_FEATURE_2 = featureAt(COLUMN_FEATURES, 2);
+    private static final int COLUMN_FEATURE_3 = featureAt(COLUMN_FEATURES, 3);
+    private static final boolean LANDING_HEIGHT = SELECTED[Features.LANDING_HEIGHT];
+    private static final boolean ROWS_CLEARED = SELECTED[Features.ROWS_CLEARED];
+    private static final boolean PILE_HEIGHT = SELECTED[Features.PILE_HEIGHT];
+
+    private FeatureRegistry() {
+    }
+
+    public static int count() {
+        return FEATURES.length;
+    }
+
+    public static Feature get(int index) {
+        return FEATURES[index];
+    }
+
+    // index of the feature called name, -1 if there is none
+    public static int indexOf(String name) {
+        for (Feature feature : FEATURES) {
+            if (feature.name.equals(name)) {
+                return feature.index;
+            }
+        }
+        return -1;
+    }
+
+    public static boolean isSelected(int index) {
+        return SELECTED[index];
+    }
+
+    // default weights of the selected features, 0 for the others
+    public static double[] defaultWeights() {
+        double[] weights = new double[FEATURES.length];
+        for (int i = 0; i < FEATURES.length; i++) {
+            weights[i] = SELECTED[i] ? FEATURES[i].defaultWeight : 0;
+        }
+        return weights;
+    }
+
+    // A weight per feature drawn from uniform (values in [0, 1)) over [-1, 0], [0, 1] or
+    // [-1, 1] by sign, in index order, and 0 for features that are not selected
+    public static double[] randomWeights(DoubleSupplier uniform) {
+        double[] weights = new double[FEATURES.length];
+        for (int i = 0; i < FEATURES.length; i++) {
+            double u = uniform.getAsDouble();
+            switch (FEATURES[i].sign) {
+                case NEGATIVE:
+                    weights[i] = u - 1;
+                    break;
+                case POSITIVE:
+                    weights[i] = u;
+                    break;
+                default:
+                    weights[i] = 2 * u - 1;
+                    break;
+            }
+            if (!SELECTED[i]) {
+                weights[i] = 0;
+            }
+        }
+        return weights;
+    }
+
+    // Sets the weights that break their sign constraint or belong to unselected features to 0
+    public static double[] constrain(double[] weights) {
+        for (int i = 0; i < FEATURES.length; i++) {
+            if (!SELECTED[i] || !FEATURES[i].allows(weights[i])) {
+                weights[i] = 0;
+            }
+        }
+        return weights;
+    }
+
+
+    // whether exactly the features at the Features indices are registered and selected
+    public static boolean isNamedSetSelected() {
+        return SCORED.length == NAMED.length && FEATURES.length == NAMED.length;
+    }
+
+    // The terms of the selected row features for row, lane k holding the k-th selected row feature
+    static long rowTerms(int row) {
+        long terms = 0;
+        if (ROW_TERM_0 != null) {
+            terms += ROW_TERM_0.of(row);
+        }
+        if (ROW_TERM_1 != null) {
+            terms += (long) ROW_TERM_1.of(row) << LANE_BITS;
+        }
+        if (ROW_TERM_2 != null) {
+            terms += (long) ROW_TERM_2.of(row) << (2 * LANE_BITS);
+        }
+        if (ROW_TERM_3 != null) {
+            terms += (long) ROW_TERM_3.of(row) << (3 * LANE_BITS);
+        }
+        return terms;
+    }
+
+    // The terms of the selected column features, lane k holding the k-th selected column feature
+    static long columnTerms(int left, int column, int right, int height) {
+        long terms = 0;
+        if (COLUMN_TERM_0 != null) {
+            terms += COLUMN_TERM_0.of(left, column, right, height);
+        }
+        if (COLUMN_TERM_1 != null) {
+            terms += (long) COLUMN_TERM_1.of(left, column, right, height) << LANE_BITS;
+        }
+        if (COLUMN_TERM_2 != null) {
+            terms += (long) COLUMN_TERM_2.of(left, column, right, height) << (2 * LANE_BITS);
+        }
+        if (COLUMN_TERM_3 != null) {
+            terms += (long) COLUMN_TERM_3.of(left, column, right, height) << (3 * LANE_BITS);
+        }
+        return terms;
+    }
+
+    // Writes the features the extractors compute themselves into out, if selected
+    static void storeBuiltIns(int landingHeight, int rowsCleared, int pileHeight, int[] out) {
+        if (LANDING_HEIGHT) {
+            out[Features.LANDING_HEIGHT] = landingHeight;
+        }
+        if (ROWS_CLEARED) {
+            out[Features.ROWS_CLEARED] = rowsCleared;
+        }
+        if (PILE_HEIGHT) {
+            out[Features.PILE_HEIGHT] = pileHeight;
+        }
+    }
+
+    // Writes each lane of a sum of rowTerms or of columnTerms into the out entry of its
+    // feature. The lanes are unpacked one by one with the feature indices as constants,
+    // which C2 folds into as many stores; a loop over ROW_FEATURES keeps its loads and
+    // made IncrementalFeatures.extract a third slower. A sum of packed terms is exact as
+    // long as every lane of the result stays in range, even if a lane of an addend is
+    // negative.
+    static void unpackRowSums(long sums, int[] out) {
+        if (ROW_FEATURE_0 >= 0) {
+            out[ROW_FEATURE_0] = (int) (sums & LANE_MASK);
+        }
+        if (ROW_FEATURE_1 >= 0) {
+            out[ROW_FEATURE_1] = (int) ((sums >>> LANE_BITS) & LANE_MASK);
+        }
+        if (ROW_FEATURE_2 >= 0) {
+            out[ROW_FEATURE_2] = (int) ((sums >>> (2 * LANE_BITS)) & LANE_MASK);
+        }
+        if (ROW_FEATURE_3 >= 0) {
+            out[ROW_FEATURE_3] = (int) ((sums >>> (3 * LANE_BITS)) & LANE_MASK);
+        }
+    }
+
+    static void unpackColumnSums(long sums, int[] out) {
+        if (COLUMN_FEATURE_0 >= 0) {
+            out[COLUMN_FEATURE_0] = (int) (sums & LANE_MASK);
+        }
+        if (COLUMN_FEATURE_1 >= 0) {
+            out[COLUMN_FEATURE_1] = (int) ((sums >>> LANE_BITS) & LANE_MASK);
+        }
+        if (COLUMN_FEATURE_2 >= 0) {
+            out[COLUMN_FEATURE_2] = (int) ((sums >>> (2 * LANE_BITS)) & LANE_MASK);
+        }
+        if (COLUMN_FEATURE_3 >= 0) {
+            out[COLUMN_FEATURE_3] = (int) ((sums >>> (3 * LANE_BITS)) & LANE_MASK);
+        }
+    }
+
+    // The value in the sums of its kind of a selected row or column feature
+    static int unpack(long sums, int index) {
+        return (int) ((sums >>> (lane(index) * LANE_BITS)) & LANE_MASK);
+    }
+
+    // the lane of a selected row or column feature in the sums of its kind
+    static int lane(int index) {
+        int[] features = FEATURES[index].rowTerm != null ? ROW_FEATURES : COLUMN_FEATURES;
+        for (int k = 0; k < features.length; k++) {
+            if (features[k] == index) {
+                return k;
+            }
+        }
+        throw new IllegalArgumentException(FEATURES[index].name + " is not a selected row or column feature");
+    }
+
+    static boolean hasRowTerm(int index) {
+        return FEATURES[index].rowTerm != null;
+    }
+
+    private static int featureAt(int[] features, int lane) {
+        return lane < features.length ? features[lane] : -1;
+    }
+
+    private static RowTerm rowTerm(int lane) {
+        int index = featureAt(ROW_FEATURES, lane);
+        return index < 0 ? null : FEATURES[index].rowTerm;
+    }
+
+    private static ColumnTerm columnTerm(int lane) {
+        int index = featureAt(COLUMN_FEATURES, lane);
+        return index < 0 ? null : FEATURES[index].columnTerm;
+    }
+
+    // "name:sign ..." in index order, with sign 0 for features that are not selected
+    public static String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Feature feature : FEATURES) {
+            if (sb.length() > 0) {
+                sb.append(' ');
+            }
+            sb.append(feature.name).append(':').append(SELECTED[feature.index] ? feature.sign.symbol() : "0");
+        }
+        return sb.toString();
+    }
+
+    private static int[] selected(Predicate<Feature> filter) {
+        int count = 0;
+        int[] indices = new int[FEATURES.length];
+        for (Feature feature : FEATURES) {
+            if (SELECTED[feature.index] && filter.test(feature)) {
+                indices[count++] = feature.index;
+            }
+        }
+        return Arrays.copyOf(indices, count);
+    }
+
+    private static boolean[] select(String names) {
+        boolean[] selected = new boolean[FEATURES.length];
+        if (names == null || names.trim().isEmpty()) {
+            Arrays.fill(selected, true);
+            return selected;
+        }
+        for (String name : names.split(",")) {
+            int index = indexOf(name.trim());
+            if (index < 0) {
+                StringBuilder known = new StringBuilder();
+                for (Feature feature : FEATURES) {
+                    known.append(' ').append(feature.name);
+                }
+                throw new IllegalArgumentException("Unknown feature '" + name.trim() + "' in tetris.features, "
+                        + "known features are" + known);
+            }
+            selected[index] = true;
+        }
+        return selected;
+    }
+}
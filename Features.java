@@ -0,0 +1,89 @@
+// Extractor for the features listed in FeatureRegistry, weighted by
+// PlayerSkeleton.DEFAULT_WEIGHTS. One sweep over the rows sums the packed row terms of
+// the selected features and one over the columns their column terms, with the same values
+// as the separate PlayerSkeleton.getXxx functions.
+public class Features {
+
+    // indices into the feature buffer of the features FeatureRegistry lists first, in
+    // DEFAULT_WEIGHTS order
+    public static final int LANDING_HEIGHT = 0;
+    public static final int ROWS_CLEARED = 1;
+    public static final int ROW_BREAKS = 2;
+    public static final int COLUMN_BREAKS = 3;
+    public static final int HOLES = 4;
+    public static final int WELL_DEPTH = 5;
+    public static final int PILE_HEIGHT = 6;
+    public static final int COUNT = FeatureRegistry.count();
+
+    private static final int COLS = State.COLS;
+    private static final int ROWS = State.ROWS;
+    // a side wall behaves like a completely filled column
+    private static final int WALL_COLUMN = (1 << ROWS) - 1;
+
+    // Four rows packed 16 bits apart have the cells of column c at bits c, c + 16, c + 32
+    // and c + 48; masked and shifted down, GATHER moves them to bits 48 to 51 without
+    // carries, so a column of the board is read four rows per multiply
+    private static final long CELLS = 0x0001000100010001L;
+    private static final long GATHER = (1L << 48) | (1L << 33) | (1L << 18) | (1L << 3);
+
+    // Writes the selected features of the board rows/top into out, leaving the others
+    // as they are. landingHeight and rowsCleared describe the move that produced the board.
+    public static void extract(int[] rows, int[] top, int landingHeight, int rowsCleared, int[] out) {
+        long rowSums = 0;
+        for (int r = 0; r < ROWS - 1; r++) {
+            rowSums += FeatureRegistry.rowTerms(rows[r]);
+        }
+        FeatureRegistry.unpackRowSums(rowSums, out);
+
+        // the board by columns, from the bottom 20 rows packed four to a long and the top row
+        long packed0 = pack(rows, 0);
+        long packed1 = pack(rows, 4);
+        long packed2 = pack(rows, 8);
+        long packed3 = pack(rows, 12);
+        long packed4 = pack(rows, 16);
+        int last = rows[ROWS - 1];
+        long columnSums = 0;
+        int maxHeight = top[0];
+        int left = WALL_COLUMN;
+        int middle = column(packed0, packed1, packed2, packed3, packed4, last, 0);
+        for (int c = 0; c < COLS; c++) {
+            int right = c + 1 < COLS ? column(packed0, packed1, packed2, packed3, packed4, last, c + 1)
+                    : WALL_COLUMN;
+            columnSums += FeatureRegistry.columnTerms(left, middle, right, top[c]);
+            maxHeight = Math.max(maxHeight, top[c]);
+            left = middle;
+            middle = right;
+        }
+        FeatureRegistry.unpackColumnSums(columnSums, out);
+        FeatureRegistry.storeBuiltIns(landingHeight, rowsCleared, maxHeight, out);
+    }
+
+    // Weighted sum of the features, accumulated in index order. The extractors never
+    // write the features that are not selected, so they stay 0 in a buffer only the
+    // extractors fill and add nothing; a loop over the selected indices instead costs
+    // pickMove a tenth of its throughput.
+    public static double score(int[] features, double[] weights) {
+        double score = 0;
+        for (int i = 0; i < COUNT; i++) {
+            score += features[i] * weights[i];
+        }
+        return score;
+    }
+
+    // rows first to first + 3, 16 bits apart
+    private static long pack(int[] rows, int first) {
+        return rows[first] | (long) rows[first + 1] << 16 | (long) rows[first + 2] << 32
+                | (long) rows[first + 3] << 48;
+    }
+
+    // column col of the packed rows and the top row, bit r being the cell at row r
+    private static int column(long packed0, long packed1, long packed2, long packed3, long packed4, int last,
+                              int col) {
+        return gather(packed0, col) | gather(packed1, col) << 4 | gather(packed2, col) << 8
+                | gather(packed3, col) << 12 | gather(packed4, col) << 16 | ((last >>> col) & 1) << (ROWS - 1);
+    }
+
+    private static int gather(long packed, int col) {
+        return (int) ((((packed >>> col) & CELLS) * GATHER) >>> 48) & 0xf;
+    }
+}
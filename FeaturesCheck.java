@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.Random;
+
+// Regression check for the fused feature extractor, run with
+//     java FeaturesCheck [GAMES] [MAX TURNS]
+// Replays seeded games and, for every legal placement of every turn, compares the
+// features computed by Features.extract and IncrementalFeatures.extract, and the
+// score of PlayerSkeleton.evaluateMove, against the original evaluation: copy the
+// field, drop the piece, clear rows and call getRowBreaks, getColumnBreaks,
+// getNumberOfHoles, getWellHole and the maximum of top. Features FeatureRegistry adds
+// after those have no reference and are only compared between the two extractors, and
+// features -Dtetris.features leaves out must stay 0. Exits with status 1 on the
+// first mismatch.
+//
+// A quarter of the moves are played at random so that the boards also have the holes
+// and wells that DEFAULT_WEIGHTS avoids.
+public class FeaturesCheck {
+
+    private static final int ROWS = State.ROWS;
+    private static final int COLS = State.COLS;
+    // the features reference computes
+    private static final int REFERENCED = Features.PILE_HEIGHT + 1;
+
+    private final int[] features = new int[Features.COUNT];
+    private final int[] fused = new int[Features.COUNT];
+    private final int[] incremental = new int[Features.COUNT];
+    private final int[] rows = new int[ROWS];
+    private final SearchScratch scratch = new SearchScratch();
+    private long placements;
+
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int maxTurns = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        FeaturesCheck check = new FeaturesCheck();
+        for (int game = 0; game < games; game++) {
+            if (!check.play(game, maxTurns)) {
+                System.exit(1);
+            }
+        }
+        System.out.println("OK: " + check.placements + " placements over " + games + " games match");
+    }
+
+    // Plays one game from seed, checking every legal placement before each move
+    boolean play(long seed, int maxTurns) {
+        State s = new State(seed);
+        Random random = new Random(seed);
+        while (!s.hasLost() && s.getTurnNumber() < maxTurns) {
+            int[][] legalMoves = s.legalMoves();
+            s.getRows(rows);
+            IncrementalFeatures base = new IncrementalFeatures();
+            base.recompute(rows, s.getTop());
+            for (int[] move : legalMoves) {
+                if (!check(s, base, move)) {
+                    System.out.println("Mismatch in game " + seed + " at turn " + s.getTurnNumber()
+                            + ", piece " + s.getNextPiece() + " orient " + move[State.ORIENT]
+                            + " slot " + move[State.SLOT]);
+                    return false;
+                }
+                placements++;
+            }
+            int move = random.nextInt(4) == 0
+                    ? random.nextInt(legalMoves.length)
+                    : PlayerSkeleton.pickMove(s, legalMoves, PlayerSkeleton.DEFAULT_WEIGHTS);
+            s.makeMove(move);
+        }
+        return true;
+    }
+
+    private boolean check(State s, IncrementalFeatures base, int[] move) {
+        int piece = s.getNextPiece();
+        int orient = move[State.ORIENT];
+        int slot = move[State.SLOT];
+        double score = PlayerSkeleton.evaluateMove(rows, s.getTop(), base, piece, orient, slot,
+                PlayerSkeleton.DEFAULT_WEIGHTS, scratch);
+
+        int[][] field = copy(s.getField());
+        int[] top = s.getTop().clone();
+        if (!reference(field, top, piece, orient, slot)) {
+            if (score != PlayerSkeleton.LOSS) {
+                System.out.println("evaluateMove scored a losing move " + score);
+                return false;
+            }
+            return true;
+        }
+
+        // the same board and move through the fused extractors
+        int placement = Placements.index(piece, orient, slot);
+        int height = Placements.landingHeight(s.getTop(), placement);
+        int[] nextRows = new int[ROWS];
+        int[] nextTop = new int[COLS];
+        int cleared = BitboardState.place(rows, s.getTop(), placement, height, nextRows, nextTop);
+        Features.extract(nextRows, nextTop, features[Features.LANDING_HEIGHT], cleared, fused);
+        base.extract(nextRows, nextTop, placement, height, features[Features.LANDING_HEIGHT], cleared, incremental);
+
+        // features without a reference take the value of the fused extractor, and the
+        // extractors must leave the unselected ones at 0
+        for (int i = REFERENCED; i < Features.COUNT; i++) {
+            features[i] = fused[i];
+        }
+        for (int i = 0; i < Features.COUNT; i++) {
+            if (!FeatureRegistry.isSelected(i)) {
+                features[i] = 0;
+            }
+        }
+        double expected = 0;
+        for (int i = 0; i < Features.COUNT; i++) {
+            expected += features[i] * PlayerSkeleton.DEFAULT_WEIGHTS[i];
+        }
+        if (!Arrays.equals(features, fused) || !Arrays.equals(features, incremental)
+                || score != expected) {
+            System.out.println("original     " + Arrays.toString(features));
+            System.out.println("Features     " + Arrays.toString(fused));
+            System.out.println("Incremental  " + Arrays.toString(incremental));
+            System.out.println("score " + score + ", original " + expected);
+            return false;
+        }
+        return true;
+    }
+
+    // The original evaluateMoves: drops the piece into field/top, clears full rows and
+    // fills features, or returns false if the piece tops out
+    private boolean reference(int[][] field, int[] top, int piece, int orient, int slot) {
+        int[][] pWidth = State.getpWidth();
+        int[][] pHeight = State.getpHeight();
+        int[][][] pTop = State.getpTop();
+        int[][][] pBottom = State.getpBottom();
+        int turn = 1;
+        int rowsCleared = 0;
+
+        int height = top[slot] - pBottom[piece][orient][0];
+        for (int c = 1; c < pWidth[piece][orient]; c++) {
+            height = Math.max(height, top[slot + c] - pBottom[piece][orient][c]);
+        }
+        if (height + pHeight[piece][orient] >= ROWS) {
+            return false;
+        }
+
+        for (int i = 0; i < pWidth[piece][orient]; i++) {
+            for (int h = height + pBottom[piece][orient][i]; h < height + pTop[piece][orient][i]; h++) {
+                field[h][i + slot] = turn;
+            }
+        }
+        for (int c = 0; c < pWidth[piece][orient]; c++) {
+            top[slot + c] = height + pTop[piece][orient][c];
+        }
+        for (int r = height + pHeight[piece][orient] - 1; r >= height; r--) {
+            boolean full = true;
+            for (int c = 0; c < COLS; c++) {
+                if (field[r][c] == 0) {
+                    full = false;
+                    break;
+                }
+            }
+            if (full) {
+                rowsCleared++;
+                for (int c = 0; c < COLS; c++) {
+                    for (int i = r; i < top[c]; i++) {
+                        field[i][c] = field[i + 1][c];
+                    }
+                    top[c]--;
+                    while (top[c] >= 1 && field[top[c] - 1][c] == 0) {
+                        top[c]--;
+                    }
+                }
+            }
+        }
+
+        int max = top[0];
+        for (int t : top) {
+            max = Math.max(max, t);
+        }
+        features[Features.LANDING_HEIGHT] = PlayerSkeleton.computeLandingHeight(pHeight[piece][orient], height);
+        features[Features.ROWS_CLEARED] = rowsCleared;
+        features[Features.ROW_BREAKS] = PlayerSkeleton.getRowBreaks(field);
+        features[Features.COLUMN_BREAKS] = PlayerSkeleton.getColumnBreaks(field);
+        features[Features.HOLES] = PlayerSkeleton.getNumberOfHoles(top, field);
+        features[Features.WELL_DEPTH] = PlayerSkeleton.getWellHole(field);
+        features[Features.PILE_HEIGHT] = max;
+        return true;
+    }
+
+    private static int[][] copy(int[][] field) {
+        int[][] copy = new int[field.length][];
+        for (int i = 0; i < field.length; i++) {
+            copy[i] = field[i].clone();
+        }
+        return copy;
+    }
+}
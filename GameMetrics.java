@@ -0,0 +1,229 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Live counters of the games a GeneticAlgorithm plays on its pool: throughput, game
+// latency, how busy each worker is and how much time goes to GC. Game threads only
+// touch LongAdders and the histogram, readers (JMX, MetricsServer) compute the rest.
+public class GameMetrics implements GameMetricsMBean {
+
+    private static final String OBJECT_NAME = "AlphaTetris:type=GameMetrics";
+
+    private final ForkJoinPool pool;
+
+    private final LongAdder games = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder gameNanos = new LongAdder();
+    // game latency in microseconds, current generation
+    private final LatencyHistogram latency = new LatencyHistogram();
+    // nanoseconds spent in games per worker thread name, current generation
+    private final Map<String, LongAdder> busyNanos = new ConcurrentHashMap<String, LongAdder>();
+
+    private volatile int generation;
+    private volatile long generationStart = System.nanoTime();
+    private volatile long generationGames;
+    private volatile long generationMoves;
+    private volatile double minutesRemaining;
+
+    public GameMetrics(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    // Registers with the platform MBean server, replacing the metrics of an earlier run in this JVM
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            System.err.println("Could not register " + OBJECT_NAME + ": " + e);
+        }
+    }
+
+    public void startGeneration(int generation) {
+        this.generation = generation;
+        generationGames = games.sum();
+        generationMoves = moves.sum();
+        latency.reset();
+        for (LongAdder busy : busyNanos.values()) {
+            busy.reset();
+        }
+        generationStart = System.nanoTime();
+    }
+
+    // Called by the thread that played the game
+    public void recordGame(long nanos, int turns) {
+        games.increment();
+        moves.add(turns);
+        gameNanos.add(nanos);
+        latency.record(nanos / 1000);
+        busyNanos.computeIfAbsent(Thread.currentThread().getName(), k -> new LongAdder()).add(nanos);
+    }
+
+    public void setEstimatedMinutesRemaining(double minutes) {
+        this.minutesRemaining = minutes;
+    }
+
+    public long getGameNanos() {
+        return gameNanos.sum();
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    // utilisation of every worker that played a game this generation
+    public Map<String, Double> getUtilisationByWorker() {
+        double elapsed = Math.max(1, System.nanoTime() - generationStart);
+        Map<String, Double> utilisation = new TreeMap<String, Double>();
+        for (Map.Entry<String, LongAdder> entry : busyNanos.entrySet()) {
+            utilisation.put(entry.getKey(), Math.min(1, entry.getValue().sum() / elapsed));
+        }
+        return utilisation;
+    }
+
+    private double generationSeconds() {
+        return Math.max(1, System.nanoTime() - generationStart) / 1e9;
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public long getGamesPlayed() {
+        return games.sum();
+    }
+
+    @Override
+    public long getMovesPlayed() {
+        return moves.sum();
+    }
+
+    @Override
+    public double getGamesPerSecond() {
+        return (games.sum() - generationGames) / generationSeconds();
+    }
+
+    @Override
+    public double getMovesPerSecond() {
+        return (moves.sum() - generationMoves) / generationSeconds();
+    }
+
+    @Override
+    public double getGameLatencyMedianMillis() {
+        return latency.getValueAtQuantile(0.5) / 1e3;
+    }
+
+    @Override
+    public double getGameLatency99Millis() {
+        return latency.getValueAtQuantile(0.99) / 1e3;
+    }
+
+    @Override
+    public double getGameLatencyMaxMillis() {
+        return latency.getMax() / 1e3;
+    }
+
+    @Override
+    public long getQueuedTasks() {
+        return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+    }
+
+    @Override
+    public int getActiveWorkers() {
+        return pool.getActiveThreadCount();
+    }
+
+    @Override
+    public double getWorkerUtilisation() {
+        double total = 0;
+        for (double u : getUtilisationByWorker().values()) {
+            total += u;
+        }
+        return total / pool.getParallelism();
+    }
+
+    @Override
+    public long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcTimeMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    @Override
+    public double getEstimatedMinutesRemaining() {
+        return minutesRemaining;
+    }
+
+    // ==============================================
+    // Prometheus text format
+    // ==============================================
+
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        metric(sb, "tetris_generation", "gauge", "Generation being played", getGeneration());
+        metric(sb, "tetris_games_total", "counter", "Games played", getGamesPlayed());
+        metric(sb, "tetris_moves_total", "counter", "Moves played", getMovesPlayed());
+        metric(sb, "tetris_games_per_second", "gauge", "Games per second this generation", getGamesPerSecond());
+        metric(sb, "tetris_moves_per_second", "gauge", "Moves per second this generation", getMovesPerSecond());
+
+        header(sb, "tetris_game_seconds", "summary", "Game latency this generation");
+        for (double q : new double[] { 0.5, 0.9, 0.99, 0.999 }) {
+            sb.append("tetris_game_seconds{quantile=\"").append(q).append("\"} ")
+                    .append(latency.getValueAtQuantile(q) / 1e6).append('\n');
+        }
+        sb.append("tetris_game_seconds_sum ").append(getGameNanos() / 1e9).append('\n');
+        sb.append("tetris_game_seconds_count ").append(getGamesPlayed()).append('\n');
+
+        metric(sb, "tetris_pool_queued_tasks", "gauge", "Games waiting in the pool", getQueuedTasks());
+        metric(sb, "tetris_pool_active_workers", "gauge", "Workers running a task", getActiveWorkers());
+        header(sb, "tetris_worker_utilisation", "gauge", "Fraction of the generation spent in games");
+        for (Map.Entry<String, Double> entry : getUtilisationByWorker().entrySet()) {
+            sb.append("tetris_worker_utilisation{worker=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue()).append('\n');
+        }
+        metric(sb, "tetris_gc_collections_total", "counter", "Garbage collections", getGcCount());
+        metric(sb, "tetris_gc_seconds_total", "counter", "Time spent in garbage collection", getGcTimeMillis() / 1e3);
+        metric(sb, "tetris_generation_minutes_remaining", "gauge", "Estimated time left in the generation",
+                getEstimatedMinutesRemaining());
+        return sb.toString();
+    }
+
+    private static void metric(StringBuilder sb, String name, String type, String help, double value) {
+        header(sb, name, type, help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void metric(StringBuilder sb, String name, String type, String help, long value) {
+        header(sb, name, type, help);
+        sb.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+}
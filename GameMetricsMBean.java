@@ -0,0 +1,34 @@
+// JMX view of GameMetrics, registered as AlphaTetris:type=GameMetrics. Rates, latencies
+// and utilisation cover the current generation; counts cover the whole run.
+public interface GameMetricsMBean {
+
+    int getGeneration();
+
+    long getGamesPlayed();
+
+    long getMovesPlayed();
+
+    double getGamesPerSecond();
+
+    double getMovesPerSecond();
+
+    double getGameLatencyMedianMillis();
+
+    double getGameLatency99Millis();
+
+    double getGameLatencyMaxMillis();
+
+    // games waiting in the pool's queues
+    long getQueuedTasks();
+
+    int getActiveWorkers();
+
+    // fraction of the generation the workers spent playing games, averaged over workers
+    double getWorkerUtilisation();
+
+    long getGcCount();
+
+    long getGcTimeMillis();
+
+    double getEstimatedMinutesRemaining();
+}
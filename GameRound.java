@@ -0,0 +1,34 @@
+import java.util.concurrent.RecursiveAction;
+
+// Plays a batch of games on a ForkJoinPool by splitting it in halves, so idle workers
+// steal the remaining halves instead of waiting on a shared queue
+class GameRound extends RecursiveAction {
+
+    private final GameTask[] tasks;
+    private final int[][] results;
+    private final int from;
+    private final int to;
+
+    private static final long serialVersionUID = 1L;
+
+    public GameRound(GameTask[] tasks, int[][] results, int from, int to) {
+        this.tasks = tasks;
+        this.results = results;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from == 1) {
+            try {
+                results[from] = tasks[from].call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        } else if (to - from > 1) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new GameRound(tasks, results, from, middle), new GameRound(tasks, results, middle, to));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.concurrent.Callable;
+
+class GameTask implements Callable<int[]> {
+
+    int index;
+    double[] weights;
+    int maxTurns;
+    PieceSource pieces;
+    GameMetrics metrics;
+
+    public GameTask(int index, Agent agent, int maxTurns, PieceSource pieces) {
+        this(index, agent, maxTurns, pieces, null);
+    }
+
+    // metrics (may be null) records the game once it is over
+    public GameTask(int index, Agent agent, int maxTurns, PieceSource pieces, GameMetrics metrics) {
+        this.index = index;
+        this.weights = agent.getWeights();
+        this.maxTurns = maxTurns;
+        this.pieces = pieces;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public int[] call() throws Exception {
+        long start = System.nanoTime();
+        int[] results = PlayerSkeleton.runBitboard(weights, maxTurns, pieces);
+        if (metrics != null) {
+            metrics.recordGame(System.nanoTime() - start, results[1]);
+        }
+        return new int[] { index, results[0], results[1] };
+    }
+}
@@ -0,0 +1,211 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// JSON Lines log of a GeneticAlgorithm run: one object per line, with an "event" field
+// ("start", "generation", "game", "info", "warning"), so a run can be loaded straight
+// into pandas, jq or a spreadsheet. Records are handed to a background thread that
+// writes them in batches, so logging never waits on the disk. If the writer falls more
+// than CAPACITY records behind, new records are dropped and counted instead.
+//
+// The file is appended to, so a resumed run continues the log of the run it resumes.
+// If writing fails the writer closes the file and stops; later records are dropped,
+// and close reports them on System.err instead of waiting for the writer.
+public class GenerationLog {
+
+    private static final int CAPACITY = 1 << 16;
+    private static final int BATCH = 1024;
+    // queued by close, compared by identity
+    private static final String END = new String("end");
+
+    private final Writer out;
+    private final boolean games;
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<String>(CAPACITY);
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+
+    // games: also log a record per game played
+    public GenerationLog(Path path, boolean games) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8));
+        this.games = games;
+        this.writer = new Thread(this::drain, "generation-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean logsGames() {
+        return games;
+    }
+
+    public void record(Record record) {
+        if (!queue.offer(record.toString())) {
+            dropped.increment();
+        }
+    }
+
+    public void info(String message) {
+        record(new Record("info").field("message", message));
+    }
+
+    public void warning(String message) {
+        record(new Record("warning").field("message", message));
+    }
+
+    // Writes every queued record and closes the file
+    public void close() {
+        long lost = dropped.sum();
+        if (lost > 0 && !writer.isAlive()) {
+            System.err.println("Generation log: " + lost + " records dropped after the log stopped");
+        } else if (lost > 0) {
+            String message = lost + " records dropped, the log could not keep up";
+            if (!queue.offer(new Record("warning").field("message", message).toString())) {
+                System.err.println("Generation log: " + message);
+            }
+        }
+        try {
+            // a writer that stopped on an error never takes END, so only wait while it runs
+            while (writer.isAlive() && !queue.offer(END, 100, TimeUnit.MILLISECONDS)) {
+            }
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        ArrayList<String> batch = new ArrayList<String>(BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH - 1);
+                for (String line : batch) {
+                    if (line == END) {
+                        return;
+                    }
+                    out.write(line);
+                    out.write('\n');
+                }
+                out.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            System.err.println("Generation log stopped: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                System.err.println("Generation log not closed: " + e);
+            }
+        }
+    }
+
+    // One JSON object, built field by field
+    public static class Record {
+
+        private final StringBuilder sb = new StringBuilder("{");
+
+        // a top level record, stamped with the event and the time in milliseconds
+        public Record(String event) {
+            field("event", event);
+            field("time", System.currentTimeMillis());
+        }
+
+        // a nested object
+        public Record() {
+        }
+
+        public Record field(String name, long value) {
+            name(name).append(value);
+            return this;
+        }
+
+        public Record field(String name, double value) {
+            appendNumber(name(name), value);
+            return this;
+        }
+
+        public Record field(String name, String value) {
+            appendString(name(name), value);
+            return this;
+        }
+
+        public Record field(String name, double[] values) {
+            StringBuilder b = name(name).append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    b.append(',');
+                }
+                appendNumber(b, values[i]);
+            }
+            b.append(']');
+            return this;
+        }
+
+        public Record field(String name, Record value) {
+            name(name).append(value);
+            return this;
+        }
+
+        public Record field(String name, Record[] values) {
+            StringBuilder b = name(name).append('[');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    b.append(',');
+                }
+                b.append(values[i]);
+            }
+            b.append(']');
+            return this;
+        }
+
+        private StringBuilder name(String name) {
+            if (sb.length() > 1) {
+                sb.append(',');
+            }
+            appendString(sb, name);
+            return sb.append(':');
+        }
+
+        private static void appendNumber(StringBuilder b, double value) {
+            // JSON has no NaN or infinity
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                b.append("null");
+            } else {
+                b.append(value);
+            }
+        }
+
+        private static void appendString(StringBuilder b, String value) {
+            b.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    b.append('\\').append(c);
+                } else if (c < 0x20) {
+                    b.append(String.format("\\u%04x", (int) c));
+                } else {
+                    b.append(c);
+                }
+            }
+            b.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString() + "}";
+        }
+    }
+}
@@ -0,0 +1,272 @@
+// The terms of the row and column features FeatureRegistry selects, kept per row and
+// per column of a board, alongside a column-major copy of the board (bit r of
+// columns[c] is the cell at row r, column c). A placement only touches the columns
+// under the piece (plus their neighbours, which a column term may look at) and the
+// rows it spans, so only those terms are recomputed. A line clear moves every column,
+// so extract recomputes all the column terms and update falls back to a full recompute.
+public class IncrementalFeatures {
+
+    private static final int COLS = State.COLS;
+    private static final int ROWS = State.ROWS;
+
+    private static final int WALLS = 1 | (1 << (COLS + 1));
+    private static final int WALLED_PAIRS = (1 << (COLS + 1)) - 1;
+    // rows the transition and well heuristics look at
+    private static final int COUNTED_ROWS = (1 << (ROWS - 1)) - 1;
+    // a side wall behaves like a completely filled column
+    private static final int WALL_COLUMN = (1 << ROWS) - 1;
+
+    private final int[] columns = new int[COLS];
+    // the columns after a line clear in extract, between two walls
+    private final int[] cleared = new int[COLS + 2];
+
+    // the packed terms (FeatureRegistry.rowTerms) of each row, only the bottom ROWS - 1
+    // rows being counted, and (FeatureRegistry.columnTerms) of each column
+    private final long[] rowTerms = new long[ROWS];
+    private final long[] columnTerms = new long[COLS];
+    private long rowSums;
+    private long columnSums;
+    private int maxHeight;
+
+    public IncrementalFeatures() {
+        cleared[0] = WALL_COLUMN;
+        cleared[COLS + 1] = WALL_COLUMN;
+    }
+
+    // the value of feature on the stored board, 0 for the move features and for the
+    // features that are not selected
+    public int get(int feature) {
+        if (!FeatureRegistry.isSelected(feature) || feature == Features.LANDING_HEIGHT
+                || feature == Features.ROWS_CLEARED) {
+            return 0;
+        }
+        if (feature == Features.PILE_HEIGHT) {
+            return maxHeight;
+        }
+        return FeatureRegistry.unpack(FeatureRegistry.hasRowTerm(feature) ? rowSums : columnSums, feature);
+    }
+
+    // Writes the selected features of the stored board into out, as extract does,
+    // without the move features
+    void totals(int[] out) {
+        FeatureRegistry.unpackRowSums(rowSums, out);
+        FeatureRegistry.unpackColumnSums(columnSums, out);
+        FeatureRegistry.storeBuiltIns(0, 0, maxHeight, out);
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    // the stored terms themselves, for kernels that read many columns at once; do not modify
+    int[] columnMasks() {
+        return columns;
+    }
+
+    // Copies the term of each row of a selected row feature to out[offset + r]
+    void rowTerms(int feature, int[] out, int offset) {
+        unpack(rowTerms, feature, out, offset);
+    }
+
+    // Copies the term of each column of a selected column feature to out[offset + c]
+    void columnTerms(int feature, int[] out, int offset) {
+        unpack(columnTerms, feature, out, offset);
+    }
+
+    public void recompute(int[] rows, int[] top) {
+        for (int c = 0; c < COLS; c++) {
+            columns[c] = 0;
+        }
+        for (int r = 0; r < ROWS; r++) {
+            int row = rows[r];
+            while (row != 0) {
+                columns[Integer.numberOfTrailingZeros(row)] |= 1 << r;
+                row &= row - 1;
+            }
+        }
+        rowSums = 0;
+        for (int r = 0; r < ROWS - 1; r++) {
+            rowTerms[r] = FeatureRegistry.rowTerms(rows[r]);
+            rowSums += rowTerms[r];
+        }
+        columnSums = 0;
+        maxHeight = 0;
+        for (int c = 0; c < COLS; c++) {
+            columnTerms[c] = FeatureRegistry.columnTerms(column(c - 1), columns[c], column(c + 1), top[c]);
+            columnSums += columnTerms[c];
+            maxHeight = Math.max(maxHeight, top[c]);
+        }
+    }
+
+    // Brings the terms up to date after the Placements entry placement came to rest at
+    // height, turning the stored board into rows/top
+    public void update(int[] rows, int[] top, int placement, int height, int rowsCleared) {
+        if (rowsCleared > 0) {
+            recompute(rows, top);
+            return;
+        }
+        int[] table = Placements.table();
+        int width = table[placement + Placements.WIDTH];
+        int slot = table[placement + Placements.SLOT];
+        for (int r = height; r < height + table[placement + Placements.HEIGHT]; r++) {
+            long terms = FeatureRegistry.rowTerms(rows[r]);
+            rowSums += terms - rowTerms[r];
+            rowTerms[r] = terms;
+        }
+        for (int c = slot; c < slot + width; c++) {
+            columns[c] |= Placements.columnMask(placement, c - slot, height);
+            maxHeight = Math.max(maxHeight, top[c]);
+        }
+        // a column term may look at the neighbours, so the columns on either side change too
+        for (int c = Math.max(0, slot - 1); c < Math.min(COLS, slot + width + 1); c++) {
+            long terms = FeatureRegistry.columnTerms(column(c - 1), columns[c], column(c + 1), top[c]);
+            columnSums += terms - columnTerms[c];
+            columnTerms[c] = terms;
+        }
+    }
+
+    // Writes the selected Features of rows/top, the stored board after the placement
+    // described as in update, into out without changing the stored terms
+    public void extract(int[] rows, int[] top, int placement, int height,
+                        int landingHeight, int rowsCleared, int[] out) {
+        int[] table = Placements.table();
+        int width = table[placement + Placements.WIDTH];
+        int slot = table[placement + Placements.SLOT];
+        int pieceHeight = table[placement + Placements.HEIGHT];
+
+        // the stored sums with the terms of the rows the placement changes replaced; a
+        // row term does not depend on where the row is, so after a line clear the rows
+        // above keep theirs, the piece rows left are at the bottom of its span and every
+        // cleared row brings an empty one (the top row, which is never filled, moves down
+        // into the counted rows)
+        long rowSums = this.rowSums + rowsCleared * FeatureRegistry.rowTerms(0);
+        for (int r = height; r < height + pieceHeight; r++) {
+            rowSums -= rowTerms[r];
+            if (r < height + pieceHeight - rowsCleared) {
+                rowSums += FeatureRegistry.rowTerms(rows[r]);
+            }
+        }
+        if (rowsCleared > 0) {
+            extractCleared(top, placement, height, slot, width, landingHeight, rowsCleared, rowSums, out);
+            return;
+        }
+
+        int pileHeight = maxHeight;
+        for (int c = slot; c < slot + width; c++) {
+            pileHeight = Math.max(pileHeight, top[c]);
+        }
+
+        // walk the columns from slot - 1 to slot + width keeping a window of three
+        long columnSums = this.columnSums;
+        int left = candidateColumn(slot - 2, placement, slot, width, height);
+        int middle = candidateColumn(slot - 1, placement, slot, width, height);
+        for (int c = slot - 1; c <= slot + width; c++) {
+            int right = candidateColumn(c + 1, placement, slot, width, height);
+            if (c >= 0 && c < COLS) {
+                columnSums += FeatureRegistry.columnTerms(left, middle, right, top[c]) - columnTerms[c];
+            }
+            left = middle;
+            middle = right;
+        }
+
+        FeatureRegistry.unpackRowSums(rowSums, out);
+        FeatureRegistry.unpackColumnSums(columnSums, out);
+        FeatureRegistry.storeBuiltIns(landingHeight, rowsCleared, pileHeight, out);
+    }
+
+    private static void unpack(long[] terms, int feature, int[] out, int offset) {
+        int shift = FeatureRegistry.lane(feature) * FeatureRegistry.LANE_BITS;
+        for (int i = 0; i < terms.length; i++) {
+            out[offset + i] = (int) ((terms[i] >>> shift) & FeatureRegistry.LANE_MASK);
+        }
+    }
+
+    // The rest of extract for a placement that clears rows, given the row sums: every
+    // column changes, so their terms are computed again from the stored columns without
+    // the cleared rows
+    private void extractCleared(int[] top, int placement, int height, int slot, int width,
+                                int landingHeight, int rowsCleared, long rowSums, int[] out) {
+        // the board after the placement, walls at both ends, and its full rows
+        int[] cleared = this.cleared;
+        int full = WALL_COLUMN;
+        for (int c = 0; c < COLS; c++) {
+            int column = columns[c];
+            if (c >= slot && c < slot + width) {
+                column |= Placements.columnMask(placement, c - slot, height);
+            }
+            cleared[c + 1] = column;
+            full &= column;
+        }
+        for (int c = 1; c <= COLS; c++) {
+            cleared[c] = withoutRows(cleared[c], full);
+        }
+
+        long columnSums = 0;
+        int pileHeight = 0;
+        for (int c = 0; c < COLS; c++) {
+            columnSums += FeatureRegistry.columnTerms(cleared[c], cleared[c + 1], cleared[c + 2], top[c]);
+            pileHeight = Math.max(pileHeight, top[c]);
+        }
+
+        FeatureRegistry.unpackRowSums(rowSums, out);
+        FeatureRegistry.unpackColumnSums(columnSums, out);
+        FeatureRegistry.storeBuiltIns(landingHeight, rowsCleared, pileHeight, out);
+    }
+
+    // column with the rows in cleared taken out and the rows above moved down
+    private static int withoutRows(int column, int cleared) {
+        while (cleared != 0) {
+            // from the top, so the lower rows keep their index
+            int r = 31 - Integer.numberOfLeadingZeros(cleared);
+            int below = (1 << r) - 1;
+            column = (column & below) | ((column >>> 1) & ~below);
+            cleared &= below;
+        }
+        return column;
+    }
+
+    // stored column, or a wall outside the board
+    private int column(int col) {
+        return (col < 0 || col >= COLS) ? WALL_COLUMN : columns[col];
+    }
+
+    private int candidateColumn(int col, int placement, int slot, int width, int height) {
+        if (col >= slot && col < slot + width) {
+            return columns[col] | Placements.columnMask(placement, col - slot, height);
+        }
+        return column(col);
+    }
+
+    // ==============================================
+    // Per row and per column terms
+    // ==============================================
+
+    static int rowBreaks(int row) {
+        int walled = (row << 1) | WALLS;
+        return Integer.bitCount((walled ^ (walled >>> 1)) & WALLED_PAIRS);
+    }
+
+    static int columnBreaks(int column) {
+        // bit r of the shifted column is the cell below row r, with the floor counted as filled
+        int transitions = Integer.bitCount((column ^ ((column << 1) | 1)) & COUNTED_ROWS);
+        // getColumnBreaks adds ROWS - 1 for an empty cell in the top row
+        if ((column & (1 << (ROWS - 1))) == 0) {
+            transitions += ROWS - 1;
+        }
+        return transitions;
+    }
+
+    // Each empty cell between two filled neighbours adds itself plus the empty cells right below it
+    static int wellDepth(int left, int column, int right) {
+        int wells = ~column & left & right & COUNTED_ROWS;
+        int depth = 0;
+        while (wells != 0) {
+            int r = Integer.numberOfTrailingZeros(wells);
+            // highest filled cell below r, -1 being the floor
+            int below = 31 - Integer.numberOfLeadingZeros(column & ((1 << r) - 1));
+            depth += r - below;
+            wells &= wells - 1;
+        }
+        return depth;
+    }
+}
@@ -0,0 +1,79 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Concurrent histogram with the log-linear buckets of HdrHistogram: values below SUB
+// get a bucket each, above that every power of two is split into SUB / 2 buckets, so
+// any recorded value is known to within 1 / 16 of itself whatever its magnitude.
+// Recording is one atomic increment and never allocates.
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int HALF = SUB / 2;
+    // largest shift, values from 2^(MAX_SHIFT + SUB_BITS) up share the last bucket
+    private static final int MAX_SHIFT = 40;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SUB + MAX_SHIFT * HALF);
+
+    public void record(long value) {
+        counts.incrementAndGet(bucket(Math.max(0, value)));
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+    }
+
+    public long getCount() {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    // Highest value of the bucket holding the value at quantile q (0 to 1), 0 if empty
+    public long getValueAtQuantile(double q) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highest(i);
+            }
+        }
+        return highest(counts.length() - 1);
+    }
+
+    public long getMax() {
+        for (int i = counts.length() - 1; i >= 0; i--) {
+            if (counts.get(i) != 0) {
+                return highest(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int bucket(long value) {
+        if (value < SUB) {
+            return (int) value;
+        }
+        // the top SUB_BITS bits of value, the first of which is always set
+        int shift = Math.min(64 - Long.numberOfLeadingZeros(value) - SUB_BITS, MAX_SHIFT);
+        long top = Math.min(value >>> shift, SUB - 1);
+        return SUB + (shift - 1) * HALF + (int) (top - HALF);
+    }
+
+    private static long highest(int bucket) {
+        if (bucket < SUB) {
+            return bucket;
+        }
+        int shift = (bucket - SUB) / HALF + 1;
+        long top = (bucket - SUB) % HALF + HALF;
+        return ((top + 1) << shift) - 1;
+    }
+}
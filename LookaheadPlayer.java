@@ -0,0 +1,143 @@
+// Two ply player. Every placement of the current piece is scored greedily as in
+// PlayerSkeleton.pickMove, then the best beamWidth of them are searched one ply
+// deeper, best first, using either the preview piece or the average over all
+// pieces. The search stops expanding once the per-move time budget is spent and
+// plays the best move found so far. With a TranspositionTable the reply value of
+// each board reached is only searched once.
+//
+// A player keeps its own search buffers, so use one per thread.
+public class LookaheadPlayer {
+
+    private final double[] weights;
+    private final int beamWidth;
+    private final long budgetNanos;
+    private final boolean usePreview;
+    private final TranspositionTable table;
+
+    private final SearchScratch scratch = new SearchScratch();
+    // board after the first ply move being expanded
+    private final int[] afterRows = new int[State.ROWS];
+    private final int[] afterTop = new int[State.COLS];
+    private final IncrementalFeatures afterFeatures = new IncrementalFeatures();
+
+    private final double[] greedyScores = new double[PlacementKernel.MAX_MOVES];
+    private final int[] order = new int[PlacementKernel.MAX_MOVES];
+
+    // beamWidth first ply moves are expanded, fewer if budgetMillis runs out (0 for no limit).
+    // Without usePreview the second ply averages over every piece instead of using the preview.
+    public LookaheadPlayer(double[] weights, int beamWidth, double budgetMillis, boolean usePreview) {
+        this(weights, beamWidth, budgetMillis, usePreview, null);
+    }
+
+    // table (may be null) must only hold values computed with these weights and usePreview
+    public LookaheadPlayer(double[] weights, int beamWidth, double budgetMillis, boolean usePreview,
+                           TranspositionTable table) {
+        this.weights = weights;
+        this.beamWidth = Math.max(1, beamWidth);
+        this.budgetNanos = (long) (budgetMillis * 1e6);
+        this.usePreview = usePreview;
+        this.table = table;
+    }
+
+    public int pickMove(State s) {
+        scratch.load(s);
+        return pickMove(scratch.rows, scratch.top, scratch.base, s.getNextPiece(), s.getPreviewPiece(),
+                s.legalMoves());
+    }
+
+    public int pickMove(BitboardState s) {
+        return pickMove(s.getRows(), s.getTop(), s.getFeatures(), s.getNextPiece(), s.getPreviewPiece(),
+                s.legalMoves());
+    }
+
+    int pickMove(int[] rows, int[] top, IncrementalFeatures features, int piece, int preview, int[][] legalMoves) {
+        long start = System.nanoTime();
+        int n = legalMoves.length;
+        for (int i = 0; i < n; i++) {
+            greedyScores[i] = PlayerSkeleton.evaluateMove(rows, top, features, piece, legalMoves[i][State.ORIENT],
+                    legalMoves[i][State.SLOT], weights, scratch);
+            order[i] = i;
+        }
+        sortByGreedyScore(n);
+
+        int best = order[0];
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < Math.min(beamWidth, n); k++) {
+            int i = order[k];
+            // the rest of the moves top out as well
+            if (greedyScores[i] <= PlayerSkeleton.LOSS) {
+                break;
+            }
+            if (k > 0 && budgetNanos > 0 && System.nanoTime() - start > budgetNanos) {
+                break;
+            }
+            int cleared = BitboardState.place(rows, top, piece, legalMoves[i][State.ORIENT],
+                    legalMoves[i][State.SLOT], afterRows, afterTop);
+            double value = cleared * weights[Features.ROWS_CLEARED] + replyValue(preview);
+            if (value > bestValue) {
+                bestValue = value;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // Value of the expanded board for the second ply, looked up in the table when there is one
+    private double replyValue(int preview) {
+        long key = 0;
+        if (table != null) {
+            long hash = TranspositionTable.hash(afterRows);
+            key = usePreview ? TranspositionTable.key(hash, preview) : hash;
+            double value = table.get(key);
+            if (!Double.isNaN(value)) {
+                return value;
+            }
+        }
+        afterFeatures.recompute(afterRows, afterTop);
+        double value = usePreview ? bestReply(preview) : expectedReply();
+        if (table != null) {
+            table.put(key, value);
+        }
+        return value;
+    }
+
+    // Score of the best placement of piece on the expanded board
+    private double bestReply(int piece) {
+        int[][] moves = BitboardState.legalMoves(piece);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int[] move : moves) {
+            best = Math.max(best, PlayerSkeleton.evaluateMove(afterRows, afterTop, afterFeatures, piece,
+                    move[State.ORIENT], move[State.SLOT], weights, scratch));
+        }
+        return best;
+    }
+
+    private double expectedReply() {
+        double total = 0;
+        for (int piece = 0; piece < State.N_PIECES; piece++) {
+            total += bestReply(piece);
+        }
+        return total / State.N_PIECES;
+    }
+
+    // Stable insertion sort of order[0, n) by descending greedy score, so ties keep move order
+    private void sortByGreedyScore(int n) {
+        for (int i = 1; i < n; i++) {
+            int move = order[i];
+            int j = i - 1;
+            while (j >= 0 && greedyScores[order[j]] < greedyScores[move]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = move;
+        }
+    }
+
+    // Plays a headless game, returns { rows cleared, turns played }
+    public int[] play(State s, int maxTurns) {
+        while (!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
+            s.makeMove(pickMove(s));
+        }
+        return new int[] { s.getRowsCleared(), s.getTurnNumber() };
+    }
+}
@@ -0,0 +1,56 @@
+// A fixed sequence of pieces shared by many games, packed 3 bits per piece.
+// The sequence is exactly what SeededPieceSource(seed) would produce, so a game
+// played on it can also be replayed from the seed alone.
+public class PieceSequence {
+
+    private static final int BITS = 3;
+    private static final int PER_LONG = Long.SIZE / BITS;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final long seed;
+    private final int length;
+    private final long[] packed;
+
+    public PieceSequence(long seed, int length) {
+        this.seed = seed;
+        this.length = length;
+        this.packed = new long[(length + PER_LONG - 1) / PER_LONG];
+        SeededPieceSource generator = new SeededPieceSource(seed);
+        for (int i = 0; i < length; i++) {
+            packed[i / PER_LONG] |= (long) generator.nextPiece() << (BITS * (i % PER_LONG));
+        }
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public int get(int i) {
+        return (int) ((packed[i / PER_LONG] >>> (BITS * (i % PER_LONG))) & MASK);
+    }
+
+    // A new reader over the sequence, one per game. Once the stored pieces run out it
+    // carries on with the generator the sequence came from.
+    public PieceSource source() {
+        return new PieceSource() {
+            private int position = 0;
+            private SeededPieceSource overflow;
+
+            @Override
+            public int nextPiece() {
+                if (position < length) {
+                    return get(position++);
+                }
+                if (overflow == null) {
+                    overflow = new SeededPieceSource(seed);
+                    overflow.skip(length);
+                }
+                return overflow.nextPiece();
+            }
+        };
+    }
+}
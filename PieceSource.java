@@ -0,0 +1,6 @@
+// Supplies the sequence of pieces a game is played with
+public interface PieceSource {
+
+    // returns the ID (0 to State.N_PIECES - 1) of the next piece
+    int nextPiece();
+}
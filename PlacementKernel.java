@@ -0,0 +1,29 @@
+// Scores every legal placement of a piece on one board in a single call, so a backend
+// can work on many placements at once. scores[i] is the score of
+// State.legalMoves(piece)[i], exactly as PlayerSkeleton.evaluateMove computes it.
+//
+// ScalarPlacementKernel is always available; VectorPlacementKernel lives in vector/
+// because it needs the incubating jdk.incubator.vector module, and is only loaded by
+// name so that the rest of the code compiles and runs without it.
+public interface PlacementKernel {
+
+    // most legal moves of any piece, the size scores needs
+    int MAX_MOVES = 34;
+
+    void scoreAll(int[] rows, int[] top, IncrementalFeatures base, int piece, double[] weights, double[] scores);
+
+    // "scalar" or "vector"; returns null if the kernel cannot be loaded in this JVM
+    static PlacementKernel load(String name) {
+        if (name.equals("scalar")) {
+            return new ScalarPlacementKernel();
+        }
+        if (name.equals("vector")) {
+            try {
+                return (PlacementKernel) Class.forName("VectorPlacementKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,78 @@
+// Every placement of every piece, precomputed into one flat array so the engine and the
+// move evaluator read a piece's shape from a single contiguous block instead of going
+// through State's jagged pWidth/pHeight/pBottom/pTop arrays on every move.
+//
+// A placement is addressed by the offset of its block, index(piece, orient, slot), and
+// the block holds
+//     WIDTH, HEIGHT, SLOT                columns and rows the piece spans, its left column
+//     BOTTOM + i, TOP + i                pBottom/pTop of piece column i
+//     ROW_MASKS + h                      filled cells of piece row h, shifted to the slot
+public final class Placements {
+
+    public static final int WIDTH = 0;
+    public static final int HEIGHT = 1;
+    public static final int SLOT = 2;
+    public static final int BOTTOM = 4;
+    public static final int TOP = 8;
+    public static final int ROW_MASKS = 12;
+
+    // ints per placement, the slots of one orientation are consecutive blocks
+    public static final int STRIDE = 16;
+    private static final int MAX_ORIENTS = 4;
+
+    private static final int[] TABLE = build();
+
+    private Placements() {
+    }
+
+    // offset of the placement in table(); slot must be legal for the piece and orientation
+    public static int index(int piece, int orient, int slot) {
+        return ((piece * MAX_ORIENTS + orient) * State.COLS + slot) * STRIDE;
+    }
+
+    public static int[] table() {
+        return TABLE;
+    }
+
+    // Row the bottom of the piece comes to rest on
+    public static int landingHeight(int[] top, int placement) {
+        int slot = TABLE[placement + SLOT];
+        int width = TABLE[placement + WIDTH];
+        int height = top[slot] - TABLE[placement + BOTTOM];
+        for (int c = 1; c < width; c++) {
+            height = Math.max(height, top[slot + c] - TABLE[placement + BOTTOM + c]);
+        }
+        return height;
+    }
+
+    // cells of column i of the piece once it rests at height, as a column-major mask
+    public static int columnMask(int placement, int i, int height) {
+        int bottom = TABLE[placement + BOTTOM + i];
+        return ((1 << (TABLE[placement + TOP + i] - bottom)) - 1) << (height + bottom);
+    }
+
+    private static int[] build() {
+        int[] table = new int[State.N_PIECES * MAX_ORIENTS * State.COLS * STRIDE];
+        for (int piece = 0; piece < State.N_PIECES; piece++) {
+            for (int orient = 0; orient < State.getpOrients()[piece]; orient++) {
+                int width = State.getpWidth()[piece][orient];
+                int[] bottom = State.getpBottom()[piece][orient];
+                int[] top = State.getpTop()[piece][orient];
+                for (int slot = 0; slot + width <= State.COLS; slot++) {
+                    int p = index(piece, orient, slot);
+                    table[p + WIDTH] = width;
+                    table[p + HEIGHT] = State.getpHeight()[piece][orient];
+                    table[p + SLOT] = slot;
+                    for (int c = 0; c < width; c++) {
+                        table[p + BOTTOM + c] = bottom[c];
+                        table[p + TOP + c] = top[c];
+                        for (int h = bottom[c]; h < top[c]; h++) {
+                            table[p + ROW_MASKS + h] |= 1 << (slot + c);
+                        }
+                    }
+                }
+            }
+        }
+        return table;
+    }
+}
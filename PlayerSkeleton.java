@@ -1,138 +1,156 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.logging.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
 
 public class PlayerSkeleton {
 
-    public static double[] DEFAULT_WEIGHTS = {
-            -0.11889029514812746,   // land height
-            0.17617469347875242,    // row clear
-            -0.07049774628211491,   // row breaks
-            -0.2284616211183528,    // column breaks
-            -0.2624911582307603,    // hole_idx
-            -0.09943344141832017,   // depth_idx
-            -0.04405104432357203    // pile_height
-    };
+    // defaults, names and signs of the weights are listed in FeatureRegistry
+    public static double[] DEFAULT_WEIGHTS = FeatureRegistry.defaultWeights();
 
     public static int WEIGHTS_LENGTH = DEFAULT_WEIGHTS.length;
 
+    // score of a move that tops out the board
+    static final double LOSS = -9999;
+
+    // Buffers reused by every move search on a thread, so evaluating moves allocates nothing
+    private static final ThreadLocal<SearchScratch> SCRATCH = ThreadLocal.withInitial(SearchScratch::new);
+
+    // Backend that scores the moves in pickMove: one by one with evaluateMove by default,
+    // -Dtetris.kernel=vector uses VectorPlacementKernel when its module is present, see
+    // the README
+    private static final String KERNEL = resolveKernel(System.getProperty("tetris.kernel", "scalar"));
+    // resolved once, pickMove tests it on every move
+    private static final boolean USE_KERNEL = !KERNEL.equals("scalar");
+    private static final ThreadLocal<PlacementKernel> KERNELS =
+            ThreadLocal.withInitial(() -> PlacementKernel.load(KERNEL));
+
+    // Boards reused by every headless game on a thread (one per pool worker), reset
+    // between games instead of allocated
+    private static final ThreadLocal<State> STATES = ThreadLocal.withInitial(
+            () -> new State(new SeededPieceSource(0), true));
+    private static final ThreadLocal<BitboardState> BOARDS = ThreadLocal.withInitial(() -> new BitboardState(0));
+
     //implement this function to have a working system
     public static int pickMove(State s, int[][] legalMoves, double[] weights) {
-        double[] evaluate_moves = new double[legalMoves.length];
+        SearchScratch scratch = SCRATCH.get();
+        scratch.load(s);
+        return pickMove(scratch.rows, scratch.top, scratch.base, s.getNextPiece(), legalMoves, weights, scratch);
+    }
+
+    private static String resolveKernel(String name) {
+        if (!name.equals("scalar") && PlacementKernel.load(name) == null) {
+            System.err.println("Move kernel '" + name + "' is not available, using the scalar kernel");
+            return "scalar";
+        }
+        return name;
+    }
+
+    public static int pickMove(BitboardState s, int[][] legalMoves, double[] weights) {
+        return pickMove(s.getRows(), s.getTop(), s.getFeatures(), s.getNextPiece(), legalMoves, weights,
+                SCRATCH.get());
+    }
+
+    // Returns the index of the first best scoring move, base holds the features of rows/top
+    static int pickMove(int[] rows, int[] top, IncrementalFeatures base, int piece, int[][] legalMoves,
+                        double[] weights, SearchScratch scratch) {
         int move = 0;
+        double best = 0;
+
+        if (USE_KERNEL && legalMoves == State.legalMoves(piece)) {
+            KERNELS.get().scoreAll(rows, top, base, piece, weights, scratch.scores);
+            for (int i = 0; i < legalMoves.length; i++) {
+                if ((i == 0) || (scratch.scores[i] > best)) {
+                    best = scratch.scores[i];
+                    move = i;
+                }
+            }
+            return move;
+        }
 
-        for (int i = 0; i < evaluate_moves.length; i++) {
-            evaluate_moves[i] = evaluateMoves(s, legalMoves[i], weights);
+        for (int i = 0; i < legalMoves.length; i++) {
+            double score = evaluateMove(rows, top, base, piece, legalMoves[i][State.ORIENT],
+                    legalMoves[i][State.SLOT], weights, scratch);
 
-            if ((i > 0) && (evaluate_moves[i] > evaluate_moves[move]))
+            if ((i == 0) || (score > best)) {
+                best = score;
                 move = i;
+            }
         }
         return move;
     }
 
     public static double evaluateMoves(State s, int[] move, double[] weights) {
+        SearchScratch scratch = SCRATCH.get();
+        scratch.load(s);
+        return evaluateMove(scratch.rows, scratch.top, scratch.base, s.getNextPiece(), move[State.ORIENT],
+                move[State.SLOT], weights, scratch);
+    }
 
-        int completed = -1;
-        int orient = move[State.ORIENT];
-        int slot = move[State.SLOT];
-        int next_piece = s.getNextPiece();
-        int turn = s.getTurnNumber() + 1;
-        int rows_cleared = 0;
-
-        int[] top = s.getTop();
-        int[] temp_top = new int[top.length];
-        int[][] field = s.getField();
-        int[][] field_temp = new int[field.length][field[0].length];
-        int[][] pWidth = State.getpWidth();
-        int[][] pHeight = State.getpHeight();
-        int[][][] pTop = State.getpTop();
-        int[][][] pBottom = State.getpBottom();
-
-        System.arraycopy(top, 0, temp_top, 0, top.length);
+    public static double evaluateMoves(BitboardState s, int[] move, double[] weights) {
+        return evaluateMove(s.getRows(), s.getTop(), s.getFeatures(), s.getNextPiece(), move[State.ORIENT],
+                move[State.SLOT], weights, SCRATCH.get());
+    }
 
-        for (int i = 0; i < field.length; i++) {
-            System.arraycopy(field[i], 0, field_temp[i], 0, field[0].length);
+    // Same as evaluateMoves, remembering the score of each board and move in table. The
+    // board is keyed by the hash the state keeps up to date as it moves.
+    public static double evaluateMoves(State s, int[] move, double[] weights, TranspositionTable table) {
+        long key = TranspositionTable.key(s.getHash(), s.getNextPiece(),
+                move[State.ORIENT], move[State.SLOT]);
+        double score = table.get(key);
+        if (Double.isNaN(score)) {
+            score = evaluateMoves(s, move, weights);
+            table.put(key, score);
         }
+        return score;
+    }
 
-        top = temp_top;
-        field = field_temp;
-
-        // height if the first column makes contact
-        int height = top[slot] - pBottom[next_piece][orient][0];
-
-        // for each column beyond the first in the piece
-        for (int c = 1; c < pWidth[next_piece][orient]; c++) {
-            height = Math.max(height, top[slot + c] - pBottom[next_piece][orient][c]);
+    public static double evaluateMoves(BitboardState s, int[] move, double[] weights, TranspositionTable table) {
+        long key = TranspositionTable.key(s.getHash(), s.getNextPiece(),
+                move[State.ORIENT], move[State.SLOT]);
+        double score = table.get(key);
+        if (Double.isNaN(score)) {
+            score = evaluateMoves(s, move, weights);
+            table.put(key, score);
         }
+        return score;
+    }
 
-        // check if it hits the top
-        // game ends
-        if (height + pHeight[next_piece][orient] < State.ROWS) {
-            // for each column in the piece - fill in the appropriate blocks
-            for (int i = 0; i < pWidth[next_piece][orient]; i++) {
-                // from bottom to top of brick
-                for (int h = height + pBottom[next_piece][orient][i]; h < height + pTop[next_piece][orient][i]; h++) {
-                    field[h][i + slot] = turn;
-                }
-            }
-
-            // adjust top
-            for (int c = 0; c < pWidth[next_piece][orient]; c++) {
-                top[slot + c] = height + pTop[next_piece][orient][c];
-            }
-
-            // check for full rows - starting at the top
-            for (int r = height + pHeight[next_piece][orient] - 1; r >= height; r--) {
-                // check all columns in the row
-                boolean full = true;
-
-                for (int c = 0; c < State.COLS; c++) {
-                    if (field[r][c] == 0) {
-                        full = false;
-                        break;
-                    }
-                }
-
-                //if the row was full
-                //remove and slide down
-                if (full) {
-                    rows_cleared++;
-                    completed++;
-
-                    //for each column
-                    for (int c = 0; c < State.COLS; c++) {
-                        //slide down all bricks
-                        for (int i = r; i < top[c]; i++) {
-                            field[i][c] = field[i + 1][c];
-                        }
-
-                        // lower the top
-                        top[c]--;
+    // Scores dropping piece at orient/slot on the board given by rows/top. The resulting
+    // board is built in the scratch buffers, leaving rows and top untouched. Only the
+    // columns and rows the piece touches are re-examined unless it clears a line.
+    static double evaluateMove(int[] rows, int[] top, IncrementalFeatures base, int piece, int orient, int slot,
+                               double[] weights, SearchScratch scratch) {
+        int placement = Placements.index(piece, orient, slot);
+        int height = Placements.landingHeight(top, placement);
+        int rows_cleared = BitboardState.place(rows, top, placement, height, scratch.nextRows, scratch.nextTop);
 
-                        while (top[c] >= 1 && field[top[c] - 1][c] == 0) {
-                            top[c]--;
-                        }
-                    }
-                }
-            }
-        } else {
-            return -9999;  
+        // check if it hits the top
+        if (rows_cleared < 0) {
+            return LOSS;
         }
 
-        return computeLandingHeight(pHeight[next_piece][orient], height) * weights[0]
-                + rows_cleared * weights[1] + getRowBreaks(field)
-                * weights[2] + getColumnBreaks(field)
-                * weights[3] + getNumberOfHoles(top, field)
-                * weights[4] + getWellHole(field)
-                * weights[5] + getMax(top) * weights[6];
+        base.extract(scratch.nextRows, scratch.nextTop, placement, height,
+                computeLandingHeight(Placements.table()[placement + Placements.HEIGHT], height), rows_cleared,
+                scratch.features);
+        return Features.score(scratch.features, weights);
     }
 
     private static int getMax(int[] top) {
@@ -248,174 +266,280 @@ public class PlayerSkeleton {
         return depth;
     }
 
-    public static int[] run(double[] weights, boolean showResults, int maxTurns) {
-        State s = new State();
-        new TFrame(s);
-        while(!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
-            s.makeMove(PlayerSkeleton.pickMove(s,s.legalMoves(), weights));
-            s.draw();
-            s.drawNext(0,0);
-            try {
-                Thread.sleep(300);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
-        // Prints the number of rows cleared and the turn number
-        if (showResults) {
-            System.out.println("You have completed "+s.getRowsCleared()+" rows.");
-        }
-        return new int [] { s.getRowsCleared(), s.getTurnNumber() };
-    }
-
-    public static void run() {
-        run(PlayerSkeleton.DEFAULT_WEIGHTS, true, 0);
-    }
-
     // ==============================================
-    // Modified main method
+    // Row mask versions of the heuristics
+    // bit c of rows[r] is set when board[r][c] != 0
     // ==============================================
-    public static void main(String[] args) {
-        // java PlayerSkeleton optimize <NUMBER OF GENERATIONS> <STARTING MAX TURNS>
-        if(args.length >= 2 && args[0].equals("optimize")) {
-            // Run genetic algorithm
-            try {
-                GeneticAlgorithm ga = new GeneticAlgorithm();
-                int generations = Integer.parseInt(args[1]);
-                int maxTurns = Integer.parseInt(args[2]);
-                ga.optimizeWeights(generations, maxTurns);
-                System.out.println("end");
-                System.exit(0);
-            } catch (NumberFormatException e) {
-                System.out.println("argument has to be an integer!");
-            }
-        } else {
-            // run game
-            PlayerSkeleton.run();
-        }
-    }
-}
 
-class Agent implements Comparable<Agent> {
+    // the side walls count as filled cells, at bit 0 and bit COLS + 1 of a shifted row
+    private static final int WALLS = 1 | (1 << (State.COLS + 1));
 
-    private double[] weights;
-    private int rowsCompleted;
-    private int turnsPlayed;
-    private int numGames;
+    public static int getNumberOfHoles(int[] rows) {
+        int holes = 0;
+        int covered = 0;
+        for (int row = State.ROWS - 1; row >= 0; row--) {
+            holes += Integer.bitCount(~rows[row] & covered);
+            covered |= rows[row];
+        }
+        return holes;
+    }
 
-    public Agent(double[] populationWeights) {
-        this.weights = populationWeights;
-        reset();
+    public static int getRowBreaks(int[] rows) {
+        int row_transition = 0;
+        for (int row = 0; row < State.ROWS - 1; row++) {
+            int walled = (rows[row] << 1) | WALLS;
+            row_transition += Integer.bitCount((walled ^ (walled >>> 1)) & ((1 << (State.COLS + 1)) - 1));
+        }
+        return row_transition;
     }
 
-    public void reset() {
-        this.rowsCompleted = 0;
-        this.turnsPlayed = 0;
-        this.numGames = 0;
+    // Matches getColumnBreaks(int[][]), including the ROWS - 1 it adds per empty cell in the top row
+    public static int getColumnBreaks(int[] rows) {
+        int column_transition = 0;
+        int previous = BitboardState.FULL_ROW;
+        for (int row = 0; row < State.ROWS - 1; row++) {
+            column_transition += Integer.bitCount(rows[row] ^ previous);
+            previous = rows[row];
+        }
+        column_transition += (State.ROWS - 1) * Integer.bitCount(~rows[State.ROWS - 1] & BitboardState.FULL_ROW);
+        return column_transition;
     }
 
-    public double[] getWeights() {
-        return this.weights;
+    public static int getWellHole(int[] rows) {
+        int depth = 0;
+        for (int r = State.ROWS - 2; r >= 0; r--) {
+            int walled = (rows[r] << 1) | WALLS;
+            // empty cells whose left and right neighbours are both filled
+            int wells = ~rows[r] & walled & (walled >>> 2) & BitboardState.FULL_ROW;
+            while (wells != 0) {
+                int bit = wells & -wells;
+                depth++;
+                for (int i = r - 1; i >= 0 && (rows[i] & bit) == 0; i--) {
+                    depth++;
+                }
+                wells &= wells - 1;
+            }
+        }
+        return depth;
     }
 
-    public int getRowsCompleted() {
-        return this.rowsCompleted;
+    public static int[] run(double[] weights, boolean showResults, int maxTurns) {
+        return run(weights, showResults, maxTurns, false);
     }
 
-    public int getTurnsPlayed() {
-        return this.turnsPlayed;
+    // Headless games skip the TFrame, drawing and the per-piece delay entirely,
+    // so they never touch AWT and run as fast as the engine allows
+    public static int[] run(double[] weights, boolean showResults, int maxTurns, boolean headless) {
+        return run(weights, showResults, maxTurns, headless, ThreadLocalRandom.current().nextLong());
     }
 
-    public int gamesPlayed() {
-        return this.numGames;
+    // Replays the game whose pieces come from seed
+    public static int[] run(double[] weights, boolean showResults, int maxTurns, boolean headless, long seed) {
+        State s;
+        if (headless) {
+            s = STATES.get();
+            s.reset(seed);
+        } else {
+            // a visible game keeps its State for the TFrame
+            s = new State(seed);
+        }
+        return run(s, weights, showResults, maxTurns, headless);
     }
 
-    public void updateScore(int rowsCompleted, int turnsPlayed) {
-        this.rowsCompleted += rowsCompleted;
-        this.turnsPlayed += turnsPlayed;
-        numGames ++;
+    private static int[] run(State s, double[] weights, boolean showResults, int maxTurns, boolean headless) {
+        if (headless) {
+            playHeadless(s, weights, maxTurns);
+        } else {
+            playVisible(s, weights, maxTurns);
+        }
+        // Prints the number of rows cleared and the turn number
+        if (showResults) {
+            System.out.println("You have completed "+s.getRowsCleared()+" rows.");
+        }
+        return new int [] { s.getRowsCleared(), s.getTurnNumber() };
     }
 
-    public String getResultsString() {
-        StringBuilder sb = new StringBuilder();
-        sb.append("Average Rows Completed: ");
-        sb.append(rowsCompleted / numGames);
-        sb.append(", Average Turns Played: ");
-        sb.append(turnsPlayed / numGames);
-        sb.append(", Num Games Played: ");
-        sb.append(numGames);
-        return sb.toString();
+    // Headless game on the bitboard engine, returns { rows cleared, turns played }
+    public static int[] runBitboard(double[] weights, int maxTurns) {
+        return runBitboard(weights, maxTurns, ThreadLocalRandom.current().nextLong());
     }
 
-    public void setWeights(double[] newWeights) {
-        this.weights = newWeights;
+    public static int[] runBitboard(double[] weights, int maxTurns, long seed) {
+        BitboardState s = BOARDS.get();
+        s.reset(seed);
+        return runBitboard(s, weights, maxTurns);
     }
 
-    public void mutateOneWeight(int index, double modifier) {
-        this.weights[index] *= modifier;
-        this.weights = normaliseWeights(this.weights);
+    public static int[] runBitboard(double[] weights, int maxTurns, PieceSource pieces) {
+        BitboardState s = BOARDS.get();
+        s.reset(pieces);
+        return runBitboard(s, weights, maxTurns);
     }
 
-    private double[] normaliseWeights(double[] weights) {
-        double sumWeights = 0;
-        for (int i = 0; i < weights.length; i++) {
-            sumWeights += Math.abs(weights[i]);
-        }
-        for (int i = 0; i < weights.length; i++) {
-            weights[i] = (weights[i] / sumWeights);
+    private static int[] runBitboard(BitboardState s, double[] weights, int maxTurns) {
+        while(!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
+            s.makeMove(PlayerSkeleton.pickMove(s,s.legalMoves(), weights));
         }
-        return weights;
+        return new int [] { s.getRowsCleared(), s.getTurnNumber() };
     }
 
-    @Override
-    public String toString() {
-        StringBuilder s = new StringBuilder();
-        s.append(getResultsString());
-        s.append("\n");
-        for (double d : weights) {
-            s.append(d);
-            s.append(", ");
+    private static void playHeadless(State s, double[] weights, int maxTurns) {
+        while(!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
+            s.makeMove(PlayerSkeleton.pickMove(s,s.legalMoves(), weights));
         }
-        s.append("\n");
-        return s.toString();
     }
 
-    @Override
-    // Sorted in increasing order number of rows cleared
-    // Number of turns survived is used as a tiebreaker
-    public int compareTo(Agent o) {
-        if (o.getRowsCompleted() > this.getRowsCompleted()) {
-            return -1;
-        } else if (o.getRowsCompleted() < this.getRowsCompleted()) {
-            return 1;
-        } else {
-            if (o.getTurnsPlayed() > this.getTurnsPlayed()) {
-                return -1;
-            } else if (o.getTurnsPlayed() < this.getTurnsPlayed()) {
-                return 1;
-            } else {
-                return 0;
+    private static void playVisible(State s, double[] weights, int maxTurns) {
+        new TFrame(s);
+        while(!s.hasLost() && (maxTurns == 0 || maxTurns > s.getTurnNumber())) {
+            s.makeMove(PlayerSkeleton.pickMove(s,s.legalMoves(), weights));
+            s.draw();
+            s.drawNext(0,0);
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
             }
         }
     }
-}
 
-class GameTask implements Callable<int[]> {
-
-    int index;
-    double[] weights;
-    int maxTurns;
-
-    public GameTask(int index, Agent agent, int maxTurns) {
-        this.index = index;
-        this.weights = agent.getWeights();
-        this.maxTurns = maxTurns;
+    public static void run() {
+        run(PlayerSkeleton.DEFAULT_WEIGHTS, true, 0);
     }
 
-    @Override
-    public int[] call() throws Exception {
-        int[] results = PlayerSkeleton.run(weights, false, maxTurns);
-        return new int[] { index, results[0], results[1] };
+    // ==============================================
+    // Modified main method
+    // ==============================================
+    public static void main(String[] args) {
+        // java PlayerSkeleton optimize <NUMBER OF GENERATIONS> <STARTING MAX TURNS> [CHECKPOINT FILE]
+        if(args.length >= 3 && args[0].equals("optimize")) {
+            // Run genetic algorithm
+            try {
+                GeneticAlgorithm ga = new GeneticAlgorithm();
+                int generations = Integer.parseInt(args[1]);
+                int maxTurns = Integer.parseInt(args[2]);
+                if (args.length > 3) {
+                    ga.setCheckpointPath(Paths.get(args[3]));
+                }
+                ga.optimizeWeights(generations, maxTurns);
+                System.out.println("end");
+                System.exit(0);
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            }
+        } else if(args.length >= 3 && args[0].equals("cmaes")) {
+            // java PlayerSkeleton cmaes <NUMBER OF GENERATIONS> <MAX TURNS> [POPULATION] [GAMES]
+            try {
+                int generations = Integer.parseInt(args[1]);
+                int maxTurns = Integer.parseInt(args[2]);
+                int population = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+                int games = args.length > 4 ? Integer.parseInt(args[4]) : 20;
+                ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                CmaEsOptimizer cmaes = new CmaEsOptimizer(population, games, maxTurns, new Random().nextLong(), pool);
+                GenerationLog log = new GenerationLog(Paths.get(System.getProperty("tetris.log", "cmaes.jsonl")),
+                        false);
+                double[] weights = cmaes.optimize(generations, log);
+                log.close();
+                pool.shutdown();
+                StringBuilder sb = new StringBuilder();
+                for (double w : weights) {
+                    sb.append(w).append(' ');
+                }
+                System.out.println(sb.toString().trim());
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+            } catch (IOException e) {
+                System.out.println("cannot open the log: " + e);
+            }
+        } else if(args.length >= 5 && args[0].equals("island")) {
+            // java PlayerSkeleton island <SHARED DIRECTORY> <ISLAND NAME> <NUMBER OF GENERATIONS> <STARTING MAX TURNS>
+            try {
+                Path directory = Paths.get(args[1]);
+                int generations = Integer.parseInt(args[3]);
+                int maxTurns = Integer.parseInt(args[4]);
+                Files.createDirectories(directory);
+                GeneticAlgorithm ga = new GeneticAlgorithm();
+                Path checkpoint = GeneticAlgorithm.islandCheckpoint(directory, args[2]);
+                // a restarted island carries on from its own checkpoint
+                if (Files.exists(checkpoint)) {
+                    ga.loadCheckpoint(checkpoint);
+                    ga.setIsland(directory, args[2]);
+                    ga.resumeOptimizing(generations);
+                } else {
+                    ga.setIsland(directory, args[2]);
+                    ga.optimizeWeights(generations, maxTurns);
+                }
+                System.out.println("end");
+                System.exit(0);
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            } catch (IOException e) {
+                System.out.println("cannot use island directory " + args[1] + ": " + e);
+            }
+        } else if(args.length >= 2 && args[0].equals("resume")) {
+            // java PlayerSkeleton resume <CHECKPOINT FILE> [NUMBER OF GENERATIONS]
+            try {
+                GeneticAlgorithm ga = new GeneticAlgorithm();
+                ga.loadCheckpoint(Paths.get(args[1]));
+                int generations = args.length > 2 ? Integer.parseInt(args[2]) : ga.getGenerations();
+                ga.resumeOptimizing(generations);
+                System.out.println("end");
+                System.exit(0);
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            } catch (IOException e) {
+                System.out.println("cannot read checkpoint " + args[1] + ": " + e);
+            }
+        } else if(args.length >= 1 && args[0].equals("serve")) {
+            // java PlayerSkeleton serve [THREADS]
+            try {
+                EvaluationServer.main(java.util.Arrays.copyOfRange(args, 1, args.length));
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            }
+        } else if(args.length >= 3 && args[0].equals("lookahead")) {
+            // java PlayerSkeleton lookahead <BEAM WIDTH> <MILLISECONDS PER MOVE> [MAX TURNS]
+            try {
+                LookaheadPlayer player = new LookaheadPlayer(DEFAULT_WEIGHTS, Integer.parseInt(args[1]),
+                        Double.parseDouble(args[2]), true);
+                int maxTurns = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+                int[] results = player.play(new State(), maxTurns);
+                System.out.println("You have completed "+results[0]+" rows.");
+            } catch (NumberFormatException e) {
+                System.out.println("arguments have to be numbers!");
+            }
+        } else if(args.length >= 1 && args[0].equals("expectimax")) {
+            // java PlayerSkeleton expectimax [THREADS] [MAX TURNS]
+            try {
+                int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+                int maxTurns = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                ExpectimaxPlayer player = new ExpectimaxPlayer(DEFAULT_WEIGHTS, pool);
+                int[] results = player.play(new State(), maxTurns, threads > 1);
+                pool.shutdown();
+                System.out.println("You have completed "+results[0]+" rows.");
+                System.out.printf("Transposition table hit rate %.1f%%%n", 100 * player.getTable().getHitRate());
+            } catch (NumberFormatException e) {
+                System.out.println("argument has to be an integer!");
+            }
+        } else if(args.length == WEIGHTS_LENGTH) {
+            // java PlayerSkeleton <WEIGHT 0> ... <WEIGHT n-1>, plays one headless game
+            try {
+                double[] weights = new double[WEIGHTS_LENGTH];
+                for (int i = 0; i < WEIGHTS_LENGTH; i++) {
+                    weights[i] = Double.parseDouble(args[i]);
+                }
+                int[] results = runBitboard(weights, 0);
+                System.out.println(results[0] + " " + results[1]);
+            } catch (NumberFormatException e) {
+                System.out.println("weights have to be numbers!");
+            }
+        } else {
+            // run game
+            PlayerSkeleton.run();
+        }
     }
 }
 
@@ -427,123 +551,504 @@ class GeneticAlgorithm {
     private int WORKERS_POOL =  Runtime.getRuntime().availableProcessors(); // threading stuff
     private int POPULATION_SIZE = 100; // number of agents
     private int GAMES = 20; // number of games each agent plays
+    private boolean COMMON_RANDOM_NUMBERS = true; // every agent plays the same GAMES piece sequences
+    private int ROUND_GAMES = 4; // games each agent still racing plays per round
+    private int MIN_RACING_GAMES = 8; // games an agent plays before it can be stopped early
+    private double RACING_CONFIDENCE = 2.0; // standard errors an agent must be below the culling cutoff to stop
     private int MAX_TURNS = 1000;
-    private double DEEPEN = 0.1; // if average rows cleared is within % of top score
+    private int MIN_TURNS = 1000; // the cap never drops below the starting MAX_TURNS, 0 for no cap at all
+    private int MAX_TURNS_LIMIT = 1 << 20;
+    // wall time a generation's games should take, see TurnCapController
+    private double GENERATION_SECONDS = Double.parseDouble(System.getProperty("tetris.generation.seconds", "120"));
     private double SELECTION = 0.1; // for tournament selection
     private double CULLING = 0.3;
     private double MUTATION_RATE = 0.05;
     private double MUTATION_DELTA = 0.2;
     private int NUM_WEIGHTS = PlayerSkeleton.WEIGHTS_LENGTH;
+    private int CHECKPOINT_INTERVAL = 1; // generations between checkpoints
+    private int MIGRATION_INTERVAL = 5; // generations between migrations when running as an island
+    private int MIGRANTS = 5; // best agents an island sends to the others
+
+    // "AGA" / "AGM" followed by the format version, see saveCheckpoint and exportMigrants
+    private static final int CHECKPOINT_MAGIC = 0x41474103;
+    private static final int CHECKPOINT_MAGIC_V2 = 0x41474102; // without the migrants received
+    private static final int CHECKPOINT_MAGIC_V1 = 0x41474101; // without MIN_TURNS either
+    private static final int MIGRANTS_MAGIC = 0x41474d01;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
 
     private ArrayList<Agent> population;
     private long generationTotalRowsCleared;
-    ExecutorService pool;
-    CompletionService<int[]> completionService;
-
-    private static Logger logger;
+    private int generationGamesPlayed;
+    private long generationTurnsPlayed;
+    private int generationGamesLost; // before reaching MAX_TURNS
+    private int generation;
+    private long seed; // every game's pieces are derived from this, see gameSeed
+    private long randomState; // SplitMix64 state of selection and mutation, saved in checkpoints
+    private int generations; // generation the run stops after
+    private Path checkpointPath = Paths.get("checkpoint.bin");
+
+    // island model: null unless setIsland was called
+    private Path migrationDirectory;
+    private String island;
+    private final HashMap<String, Integer> receivedGeneration = new HashMap<String, Integer>();
+
+    ForkJoinPool pool;
+    private final GameMetrics metrics;
+
+    // open while generations run, see runGenerations
+    private GenerationLog log;
+    private Path logPath = Paths.get(System.getProperty("tetris.log", "generations.jsonl"));
+    private boolean logGames = Boolean.getBoolean("tetris.log.games");
 
     // ==============================================
     // Constructor
     // ==============================================
     public GeneticAlgorithm() {
-        population = seedPopulation();
-        pool = Executors.newFixedThreadPool(WORKERS_POOL);
-        completionService = new ExecutorCompletionService<int[]>(pool);
-        logger = Logger.getLogger("GeneticAlgorithm");
-        logger.setUseParentHandlers(false);
-
-        FileHandler fh;
+        this(new Random().nextLong());
+    }
 
-        try {
-            fh = new FileHandler("output.log");
-            logger.addHandler(fh);
-            SimpleFormatter formatter = new SimpleFormatter();
-            fh.setFormatter(formatter);
-        } catch (SecurityException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    public GeneticAlgorithm(long seed) {
+        this.seed = seed;
+        this.randomState = SeededPieceSource.mix(~seed);
+        population = seedPopulation();
+        pool = new ForkJoinPool(WORKERS_POOL);
+        metrics = new GameMetrics(pool);
+        metrics.register();
     }
 
     // ==============================================
     // Driver methods
     // ==============================================
+    // Plays GAMES games per agent in rounds of ROUND_GAMES. After every round, agents
+    // that are confidently going to be culled stop playing, so the remaining rounds
+    // are spent on the agents still in contention. At most the number culled are
+    // stopped and stopped agents sort first, so all of them are culled: none survives
+    // or becomes a parent on an average over fewer sequences than the others.
     public void runGames() {
-        int totalGames = GAMES * population.size();
-        int gamesCompleted = 0;
-        for (int i = 0; i < GAMES; i++) {
-            for (int j = 0; j < population.size(); j++) {
-                Agent agent = population.get(j);
-                agent.reset();
-                completionService.submit(new GameTask(j, population.get(j), MAX_TURNS));
-            }
+        for (Agent agent : population) {
+            agent.reset();
         }
+        PieceSequence[] sequences = COMMON_RANDOM_NUMBERS ? generateSequences() : null;
+        int numCulled = (int) (CULLING * POPULATION_SIZE);
+        int stopped = 0;
+        metrics.startGeneration(generation);
+
         long startTime = System.currentTimeMillis();
-        long stopTime;
         long averageTimePerGame;
         float timeRemaining;
-        for (int i = 0; i < (GAMES * population.size()); i++){
-            try {
-                int[] result = completionService.take().get();
+        for (int played = 0; played < GAMES; played += ROUND_GAMES) {
+            int roundGames = Math.min(ROUND_GAMES, GAMES - played);
+            ArrayList<GameTask> tasks = new ArrayList<GameTask>();
+            // game number and piece seed of each task, for the per game log
+            ArrayList<long[]> games = new ArrayList<long[]>();
+            for (int i = played; i < played + roundGames; i++) {
+                for (int j = 0; j < population.size(); j++) {
+                    if (population.get(j).isStopped()) {
+                        continue;
+                    }
+                    long pieceSeed = COMMON_RANDOM_NUMBERS
+                            ? sequences[i].getSeed()
+                            : gameSeed(generation, i * population.size() + j);
+                    PieceSource pieces = COMMON_RANDOM_NUMBERS
+                            ? sequences[i].source()
+                            : new SeededPieceSource(pieceSeed);
+                    tasks.add(new GameTask(j, population.get(j), MAX_TURNS, pieces, metrics));
+                    games.add(new long[] { i, pieceSeed });
+                }
+            }
+            int[][] results = new int[tasks.size()][];
+            pool.invoke(new GameRound(tasks.toArray(new GameTask[tasks.size()]), results, 0, results.length));
+
+            for (int k = 0; k < results.length; k++) {
+                int[] result = results[k];
                 population.get(result[0]).updateScore(result[1], result[2]);
                 generationTotalRowsCleared += result[1];
-                gamesCompleted ++;
-                stopTime = System.currentTimeMillis();
-                averageTimePerGame = (stopTime - startTime) / gamesCompleted;
-                timeRemaining = (float) ((averageTimePerGame * (totalGames - gamesCompleted)) / 1000) / 60;
-//                System.out.printf("Currently processing %s of %s games. Estimated Time Remaining: %.2f Minutes.\r",
-//                        gamesCompleted, totalGames, timeRemaining);
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
+                generationGamesPlayed ++;
+                generationTurnsPlayed += result[2];
+                if (MAX_TURNS == 0 || result[2] < MAX_TURNS) {
+                    generationGamesLost ++;
+                }
+                if (log != null && log.logsGames()) {
+                    log.record(new GenerationLog.Record("game")
+                            .field("generation", generation)
+                            .field("agent", result[0])
+                            .field("game", games.get(k)[0])
+                            .field("seed", games.get(k)[1])
+                            .field("maxTurns", MAX_TURNS)
+                            .field("rows", result[1])
+                            .field("turns", result[2]));
+                }
             }
+            stopped += stopHopelessAgents(numCulled - stopped);
+
+            averageTimePerGame = (System.currentTimeMillis() - startTime) / generationGamesPlayed;
+            timeRemaining = (float) ((averageTimePerGame * (GAMES - played - roundGames)
+                    * (population.size() - stopped)) / 1000) / 60;
+            metrics.setEstimatedMinutesRemaining(timeRemaining);
+//            System.out.printf("Currently processing %s of %s games. Estimated Time Remaining: %.2f Minutes.\r",
+//                    generationGamesPlayed, GAMES * population.size(), timeRemaining);
         }
     }
 
-    public void report(int gen) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("\nGeneration ");
-        sb.append(Integer.toString(gen));
-        sb.append(", Search Depth: ");
-        sb.append(MAX_TURNS);
-        sb.append(" turns\nTop 10 Results:\n");
-        for (int i = 1; i <= 5; i++) {
-            sb.append(population.get(population.size() - i));
+    // Stops at most budget racing agents whose average is RACING_CONFIDENCE standard errors
+    // below the average of the worst agent that would currently survive, the one an agent
+    // has to beat not to be culled
+    private int stopHopelessAgents(int budget) {
+        int numCulled = (int) (CULLING * POPULATION_SIZE);
+        if (budget <= 0 || numCulled >= population.size()) {
+            return 0;
+        }
+        double[] averages = new double[population.size()];
+        for (int j = 0; j < population.size(); j++) {
+            averages[j] = population.get(j).getAverageRowsCompleted();
+        }
+        Arrays.sort(averages);
+        // averages[numCulled - 1] is the best agent culled, averages[numCulled] the worst survivor
+        double cutoff = averages[numCulled];
+
+        ArrayList<Integer> hopeless = new ArrayList<Integer>();
+        for (int j = 0; j < population.size(); j++) {
+            Agent agent = population.get(j);
+            if (!agent.isStopped() && agent.gamesPlayed() >= MIN_RACING_GAMES
+                    && agent.getAverageRowsCompleted() + RACING_CONFIDENCE * agent.getRowsStandardError() < cutoff) {
+                hopeless.add(j);
+            }
+        }
+        // stop the most hopeless first
+        Collections.sort(hopeless, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(upperBound(population.get(a)), upperBound(population.get(b)));
+            }
+        });
+        int count = Math.min(budget, hopeless.size());
+        for (int i = 0; i < count; i++) {
+            population.get(hopeless.get(i)).stop();
         }
-        sb.append("\nTop 4 runner ups\n");
-        for (int j = POPULATION_SIZE-2; j > POPULATION_SIZE-6; j--) {
-            sb.append(population.get(j).getResultsString());
-            sb.append("\n");
+        return count;
+    }
+
+    private double upperBound(Agent agent) {
+        return agent.getAverageRowsCompleted() + RACING_CONFIDENCE * agent.getRowsStandardError();
+    }
+
+    // Shared piece sequences for this generation. Agents are compared on the same
+    // pieces, which removes most of the game to game noise from the ranking.
+    // Sequence i is game i of every agent and replays from gameSeed(generation, i).
+    public PieceSequence[] generateSequences() {
+        PieceSequence[] sequences = new PieceSequence[GAMES];
+        // a game of MAX_TURNS moves sees MAX_TURNS + 2 pieces counting the preview, the rest is generated on demand
+        int length = MAX_TURNS == 0 ? 0 : MAX_TURNS + 2;
+        for (int i = 0; i < GAMES; i++) {
+            sequences[i] = new PieceSequence(gameSeed(generation, i), length);
+        }
+        return sequences;
+    }
+
+    // Seed of a game within a generation, so any game of a run can be replayed with
+    // PlayerSkeleton.run(weights, true, maxTurns, false, gameSeed(generation, game))
+    public long gameSeed(int generation, int game) {
+        return SeededPieceSource.mix(seed + SeededPieceSource.mix(((long) generation << 32) | game));
+    }
+
+    // One "generation" record: the sorted population's 5 best agents and the averages
+    public void report(int gen, long millis) {
+        GenerationLog.Record[] top = new GenerationLog.Record[Math.min(5, population.size())];
+        for (int i = 0; i < top.length; i++) {
+            Agent agent = population.get(population.size() - 1 - i);
+            top[i] = new GenerationLog.Record()
+                    .field("averageRows", agent.getAverageRowsCompleted())
+                    .field("averageTurns", agent.getAverageTurnsPlayed())
+                    .field("games", agent.gamesPlayed())
+                    .field("weights", agent.getWeights());
         }
-        sb.append("Population Average Rows Completed: ");
-        sb.append(generationTotalRowsCleared / (GAMES * population.size()));
-        sb.append(", Total Games Played: ");
-        sb.append(GAMES * population.size());
-        sb.append("\n");
-        logger.info(sb.toString());
+        log.record(new GenerationLog.Record("generation")
+                .field("generation", gen)
+                .field("maxTurns", MAX_TURNS)
+                .field("games", generationGamesPlayed)
+                .field("gamesLost", generationGamesLost)
+                .field("turns", generationTurnsPlayed)
+                .field("averageRows", (double) generationTotalRowsCleared / generationGamesPlayed)
+                .field("millis", millis)
+                .field("top", top));
     }
 
-    public void deepenSearch() {
-        float averageRowsCleared = generationTotalRowsCleared / (GAMES * population.size());
-        float topAverageRowsCleared = population.get(population.size() - 1).getRowsCompleted() / GAMES;
-        if (((topAverageRowsCleared - averageRowsCleared) / topAverageRowsCleared) <  DEEPEN) {
-            MAX_TURNS *= 2;
+    // Sets MAX_TURNS for the next generation from the games of this one, which took
+    // seconds to play, so that it takes about GENERATION_SECONDS
+    public void deepenSearch(double seconds) {
+        if (MIN_TURNS == 0) {
+            // started without a cap, games stay unlimited
+            return;
         }
+        TurnCapController controller = new TurnCapController(GENERATION_SECONDS, MIN_TURNS, MAX_TURNS_LIMIT);
+        MAX_TURNS = controller.nextCap(MAX_TURNS, generationGamesPlayed, generationTurnsPlayed, generationGamesLost,
+                seconds);
     }
 
     // The point of entry for GeneticAlgorithm
     public void optimizeWeights(int generations, int maxTurns) {
         MAX_TURNS = maxTurns;
-        logger.info("Running genetic algorithm with " + generations + " generations and " + maxTurns + " starting max turns");
-        for (int i = 1; i <= generations; i++) {
+        MIN_TURNS = maxTurns;
+        runGenerations(generations);
+    }
+
+    // Carries on after loadCheckpoint until generations generations have been played in total
+    public void resumeOptimizing(int generations) {
+        runGenerations(generations);
+    }
+
+    private void runGenerations(int generations) {
+        this.generations = generations;
+        try {
+            log = new GenerationLog(logPath, logGames);
+        } catch (IOException e) {
+            System.err.println("Cannot open generation log " + logPath + ": " + e);
+            return;
+        }
+        log.record(new GenerationLog.Record("start")
+                .field("seed", seed)
+                .field("firstGeneration", generation + 1)
+                .field("generations", generations)
+                .field("maxTurns", MAX_TURNS)
+                .field("generationSeconds", GENERATION_SECONDS)
+                .field("population", population.size())
+                .field("games", GAMES)
+                .field("island", island == null ? "" : island));
+        MetricsServer metricsServer = startMetricsServer();
+        for (int i = generation + 1; i <= generations; i++) {
+            long start = System.currentTimeMillis();
+            generation = i;
             generationTotalRowsCleared = 0;
+            generationGamesPlayed = 0;
+            generationTurnsPlayed = 0;
+            generationGamesLost = 0;
             runGames();
+            long millis = System.currentTimeMillis() - start;
             Collections.sort(population);
-            report(i);
-            deepenSearch();
+            report(i, millis);
+            deepenSearch(millis / 1e3);
             nextGeneration();
+            // after breeding, so immigrants play this island's games before they can be parents
+            if (migrationDirectory != null && i % MIGRATION_INTERVAL == 0) {
+                migrate();
+            }
+            if (i % CHECKPOINT_INTERVAL == 0 || i == generations) {
+                try {
+                    saveCheckpoint(checkpointPath);
+                } catch (IOException e) {
+                    log.warning("Could not write checkpoint " + checkpointPath + ": " + e);
+                }
+            }
+        }
+        if (metricsServer != null) {
+            metricsServer.stop();
         }
         pool.shutdown();
+        log.close();
+    }
+
+    // Serves getMetrics() over HTTP when -Dtetris.metrics.port is set, see MetricsServer
+    private MetricsServer startMetricsServer() {
+        String port = System.getProperty("tetris.metrics.port");
+        if (port == null) {
+            return null;
+        }
+        try {
+            MetricsServer server = new MetricsServer(metrics, Integer.parseInt(port));
+            log.info("Serving metrics on http://localhost:" + server.getPort() + "/metrics");
+            return server;
+        } catch (IOException | NumberFormatException e) {
+            log.warning("Could not serve metrics on port " + port + ": " + e);
+            return null;
+        }
+    }
+
+    public GameMetrics getMetrics() {
+        return metrics;
+    }
+
+    // ==============================================
+    // Checkpoints
+    // ==============================================
+    public void setCheckpointPath(Path checkpointPath) {
+        this.checkpointPath = checkpointPath;
+    }
+
+    public int getGenerations() {
+        return generations;
+    }
+
+    // Writes everything the run needs to carry on after the last finished generation.
+    // The file is written next to path and renamed over it once it is on disk, so an
+    // interrupted write leaves the previous checkpoint intact.
+    public void saveCheckpoint(Path path) throws IOException {
+        writeAtomically(path, out -> {
+            out.writeInt(CHECKPOINT_MAGIC);
+            out.writeLong(seed);
+            out.writeInt(generation);
+            out.writeInt(generations);
+            out.writeInt(MAX_TURNS);
+            out.writeLong(randomState);
+            out.writeInt(MIN_TURNS);
+            out.writeInt(population.size());
+            for (Agent agent : population) {
+                agent.write(out);
+            }
+            // the immigrants are in the population, so a resumed island must not take them again
+            out.writeInt(receivedGeneration.size());
+            for (Map.Entry<String, Integer> received : receivedGeneration.entrySet()) {
+                out.writeUTF(received.getKey());
+                out.writeInt(received.getValue());
+            }
+        });
+    }
+
+    // Restores a run written by saveCheckpoint, later checkpoints go to the same path
+    public void loadCheckpoint(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int magic = in.readInt();
+            if (magic != CHECKPOINT_MAGIC && magic != CHECKPOINT_MAGIC_V2 && magic != CHECKPOINT_MAGIC_V1) {
+                throw new IOException("not a genetic algorithm checkpoint");
+            }
+            seed = in.readLong();
+            generation = in.readInt();
+            generations = in.readInt();
+            MAX_TURNS = in.readInt();
+            randomState = in.readLong();
+            MIN_TURNS = magic != CHECKPOINT_MAGIC_V1 ? in.readInt() : MAX_TURNS;
+            int size = in.readInt();
+            if (size != POPULATION_SIZE) {
+                throw new IOException("population of " + size + " agents, expected " + POPULATION_SIZE);
+            }
+            ArrayList<Agent> agents = new ArrayList<Agent>(size);
+            for (int i = 0; i < size; i++) {
+                Agent agent = Agent.read(in);
+                if (agent.getWeights().length != NUM_WEIGHTS) {
+                    throw new IOException("agent with " + agent.getWeights().length + " weights, expected "
+                            + NUM_WEIGHTS);
+                }
+                agents.add(agent);
+            }
+            HashMap<String, Integer> received = new HashMap<String, Integer>();
+            if (magic == CHECKPOINT_MAGIC) {
+                int islands = in.readInt();
+                for (int i = 0; i < islands; i++) {
+                    String from = in.readUTF();
+                    received.put(from, in.readInt());
+                }
+            }
+            population = agents;
+            receivedGeneration.clear();
+            receivedGeneration.putAll(received);
+        }
+        checkpointPath = path;
+    }
+
+    private interface Payload {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // Writes a .tmp sibling of path, syncs it and renames it over path, so readers
+    // only ever see a complete file
+    private static void writeAtomically(Path path, Payload payload) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp.toFile());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            payload.write(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        try {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // ==============================================
+    // Island model
+    // ==============================================
+    // Runs this population as one island among several processes sharing directory
+    // (a local or network mount). Every MIGRATION_INTERVAL generations each island
+    // publishes its best agents there and takes in the ones the others published.
+    // Checkpoints go to the directory too, one per island.
+    public void setIsland(Path directory, String island) {
+        this.migrationDirectory = directory;
+        this.island = island;
+        this.checkpointPath = islandCheckpoint(directory, island);
+        if (System.getProperty("tetris.log") == null) {
+            this.logPath = directory.resolve(island + ".jsonl");
+        }
+    }
+
+    public static Path islandCheckpoint(Path directory, String island) {
+        return directory.resolve(island + ".checkpoint");
+    }
+
+    private void migrate() {
+        try {
+            exportMigrants();
+        } catch (IOException e) {
+            log.warning("Island " + island + " could not publish migrants: " + e);
+        }
+        importMigrants();
+    }
+
+    // Publishes the MIGRANTS best agents of the sorted population as <island>.migrants;
+    // nextGeneration only replaces the culled agents, so they are still the last ones
+    private void exportMigrants() throws IOException {
+        final int count = Math.min(MIGRANTS, population.size());
+        writeAtomically(migrationDirectory.resolve(island + ".migrants"), out -> {
+            out.writeInt(MIGRANTS_MAGIC);
+            out.writeUTF(island);
+            out.writeInt(generation);
+            out.writeInt(count);
+            for (int i = population.size() - count; i < population.size(); i++) {
+                population.get(i).write(out);
+            }
+        });
+    }
+
+    // Takes in every migrant published since the last migration. Immigrants replace
+    // the weakest agents that survived culling, never this island's own MIGRANTS best.
+    // Their scores come from another island's turn cap and pieces, so they are dropped:
+    // immigrants are ranked by the games of the next generation like the offspring.
+    private void importMigrants() {
+        int next = (int) (CULLING * POPULATION_SIZE);
+        int last = population.size() - MIGRANTS;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(migrationDirectory, "*.migrants")) {
+            for (Path file : files) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                    if (in.readInt() != MIGRANTS_MAGIC) {
+                        throw new IOException("not a migrants file");
+                    }
+                    String from = in.readUTF();
+                    int sent = in.readInt();
+                    Integer received = receivedGeneration.get(from);
+                    if (from.equals(island) || (received != null && received >= sent)) {
+                        continue;
+                    }
+                    receivedGeneration.put(from, sent);
+                    int count = in.readInt();
+                    int taken = 0;
+                    for (int i = 0; i < count && next < last; i++) {
+                        Agent agent = Agent.read(in);
+                        if (agent.getWeights().length == NUM_WEIGHTS) {
+                            agent.reset();
+                            population.set(next++, agent);
+                            taken++;
+                        }
+                    }
+                    log.info("Island " + island + " took " + taken + " migrants from island " + from
+                            + " generation " + sent);
+                } catch (IOException e) {
+                    log.warning("Island " + island + " skipped migrants file " + file + ": " + e);
+                }
+            }
+        } catch (IOException e) {
+            log.warning("Island " + island + " could not read " + migrationDirectory + ": " + e);
+        }
     }
 
     public ArrayList<Agent> seedPopulation() {
@@ -559,7 +1064,7 @@ class GeneticAlgorithm {
 
         for (double[] weights : presetPopulationWeights) {
             for (int i = 0; i < numRepetitions; i++) {
-                agentPopulation.add(new Agent(weights));
+                agentPopulation.add(new Agent(FeatureRegistry.constrain(weights.clone())));
             }
         }
 
@@ -572,28 +1077,29 @@ class GeneticAlgorithm {
     }
 
     public double[] generateWeights() {
-        double[] populationWeights = new double[NUM_WEIGHTS];
-
         // Modified so that the weight generation is a smarter
         // e.g. aggregate column heights should never be +ve
-        populationWeights[0] = randRange(-1, 0);
-        populationWeights[1] = randRange(0, 1);
-        populationWeights[2] = randRange(-1, 0);
-        populationWeights[3] = randRange(-1, 0);
-        populationWeights[4] = randRange(-1, 0);
-        populationWeights[5] = randRange(-1, 0);
-        populationWeights[6] = randRange(-1, 0);
-
-        //		for (int i = 0; i < NUM_WEIGHTS; i++) {
-        //			populationWeights[i] = randRange(-1, 1);
-        //		}
-
+        double[] populationWeights = FeatureRegistry.randomWeights(this::nextDouble);
         return normaliseWeights(populationWeights);
     }
 
     public double randRange(double lower, double upper) {
-        Random random = new Random();
-        return random.nextDouble() * (upper - lower) + lower;
+        return nextDouble() * (upper - lower) + lower;
+    }
+
+    // SplitMix64 draws from randomState, so a resumed run makes the same choices
+    private long nextRandom() {
+        randomState += GOLDEN_GAMMA;
+        return SeededPieceSource.mix(randomState);
+    }
+
+    private double nextDouble() {
+        return (nextRandom() >>> 11) * 0x1.0p-53;
+    }
+
+    // uniform in [0, bound)
+    private int nextInt(int bound) {
+        return (int) (((nextRandom() >>> 32) * bound) >>> 32);
     }
 
     public double[] normaliseWeights(double[] weights) {
@@ -624,10 +1130,9 @@ class GeneticAlgorithm {
     }
 
     public Agent createOffspring() {
-        Random random = new Random();
         ArrayList<Agent> parents = selectParents(population);
         Agent offspring = crossover(parents);
-        if (random.nextDouble() < MUTATION_RATE) {
+        if (nextDouble() < MUTATION_RATE) {
             mutate(offspring);
         }
         return offspring;
@@ -636,10 +1141,9 @@ class GeneticAlgorithm {
     // Returns top 2 agents from randomly selected pool (tournament selection)
     public ArrayList<Agent> selectParents(ArrayList<Agent> agentPopulation) {
         ArrayList<Agent> parents = new ArrayList<Agent>();
-        Random random = new Random();
         ArrayList<Agent> randomAgents = new ArrayList<Agent>();
         for (int i = 0; i < (int) (POPULATION_SIZE * SELECTION); i++) {
-            randomAgents.add(population.get(random.nextInt(POPULATION_SIZE)));
+            randomAgents.add(population.get(nextInt(POPULATION_SIZE)));
         }
         Collections.sort(randomAgents);
 
@@ -657,8 +1161,8 @@ class GeneticAlgorithm {
         Agent p1 = parents.get(0);
         Agent p2 = parents.get(1);
 
-        double fitness1 = p1.getTurnsPlayed();
-        double fitness2 = p2.getTurnsPlayed();
+        double fitness1 = p1.getAverageTurnsPlayed();
+        double fitness2 = p2.getAverageTurnsPlayed();
 
         double inheritFromP1 = fitness1 / (fitness1 + fitness2);
         double inheritFromP2 = fitness2 / (fitness1 + fitness2);
@@ -671,8 +1175,7 @@ class GeneticAlgorithm {
     }
 
     public void mutate(Agent offspring) {
-        Random random = new Random();
-        int weightIndex = random.nextInt(offspring.getWeights().length);
+        int weightIndex = nextInt(offspring.getWeights().length);
         double mutationModifier = 1 + randRange(MUTATION_DELTA, -MUTATION_DELTA);
         offspring.mutateOneWeight(weightIndex, mutationModifier);
     }
@@ -0,0 +1,16 @@
+// PlacementKernel that scores the placements one at a time with PlayerSkeleton.evaluateMove.
+// Keeps its own scratch buffers, so use one per thread.
+public class ScalarPlacementKernel implements PlacementKernel {
+
+    private final SearchScratch scratch = new SearchScratch();
+
+    @Override
+    public void scoreAll(int[] rows, int[] top, IncrementalFeatures base, int piece, double[] weights,
+                         double[] scores) {
+        int[][] moves = State.legalMoves(piece);
+        for (int i = 0; i < moves.length; i++) {
+            scores[i] = PlayerSkeleton.evaluateMove(rows, top, base, piece, moves[i][State.ORIENT],
+                    moves[i][State.SLOT], weights, scratch);
+        }
+    }
+}
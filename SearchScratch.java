@@ -0,0 +1,24 @@
+// Per-thread boards used by the move search
+class SearchScratch {
+
+    // board the candidate moves are played from, used when searching a State
+    final int[] rows = new int[State.ROWS];
+    final int[] top = new int[State.COLS];
+
+    // board after the candidate move
+    final int[] nextRows = new int[State.ROWS];
+    final int[] nextTop = new int[State.COLS];
+
+    // features of rows/top and of the board after the candidate move
+    final IncrementalFeatures base = new IncrementalFeatures();
+    final int[] features = new int[Features.COUNT];
+
+    // score of each legal move, filled by a PlacementKernel
+    final double[] scores = new double[PlacementKernel.MAX_MOVES];
+
+    public void load(State s) {
+        s.getRows(rows);
+        System.arraycopy(s.getTop(), 0, top, 0, State.COLS);
+        base.recompute(rows, top);
+    }
+}
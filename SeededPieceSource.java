@@ -0,0 +1,36 @@
+// Fast per-game piece generator (SplitMix64). Each game owns its own instance, so
+// parallel games never share random state, and a game can be replayed from its seed.
+public class SeededPieceSource implements PieceSource {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    public SeededPieceSource(long seed) {
+        this.state = seed;
+    }
+
+    @Override
+    public int nextPiece() {
+        state += GOLDEN_GAMMA;
+        // top 32 bits scaled into [0, N_PIECES)
+        return (int) (((mix(state) >>> 32) * State.N_PIECES) >>> 32);
+    }
+
+    // Restarts the sequence as if this source had been created with seed
+    public void reseed(long seed) {
+        this.state = seed;
+    }
+
+    // Jumps over the next n pieces
+    public void skip(long n) {
+        state += n * GOLDEN_GAMMA;
+    }
+
+    // SplitMix64 finaliser, also used to derive independent seeds from counters
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,4 +1,6 @@
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 
@@ -23,19 +25,37 @@ public class State {
 	private int cleared = 0;
 	
 	//each square in the grid - int means empty - other values mean the turn it was placed
-	private int[][] field = new int[ROWS][COLS];
+	//null when the cells are stored flat
+	private int[][] field;
+	//the same squares in one row-major array (row r starts at r*COLS), or null
+	private final int[] cells;
 	//top row+1 of each column
 	//0 means empty
 	private int[] top = new int[COLS];
 	
+	//occupied squares of each row as a bit mask (bit c for column c), and their
+	//TranspositionTable.hash, both updated as squares change
+	private final int[] rowMasks = new int[ROWS];
+	private long hash;
+	
 	
 	//number of next piece
 	protected int nextPiece;
 	
+	//number of the piece that comes after it, known in advance
+	protected int previewPiece;
+	
+	//where the pieces come from
+	private PieceSource pieces;
+	
+	//getField() of a flat layout
+	private int[][] fieldCopy;
+	
 	
 	
 	//all legal moves - first index is piece type - then a list of 2-length arrays
-	protected static int[][][] legalMoves = new int[N_PIECES][][];
+	//built once when the class loads and shared by every game, so never modify them
+	protected static final int[][][] legalMoves = new int[N_PIECES][][];
 	
 	//indices for legalMoves
 	public static final int ORIENT = 0;
@@ -84,8 +104,8 @@ public class State {
 		{{2,2,1},{2,3}}
 	};
 	
-	//initialize legalMoves
-	{
+	//initialize legalMoves, after the piece arrays above
+	static {
 		//for each piece type
 		for(int i = 0; i < N_PIECES; i++) {
 			//figure number of legal moves
@@ -111,13 +131,36 @@ public class State {
 	}
 	
 	
+	//with a flat layout this is a copy, refreshed on every call
 	public int[][] getField() {
-		return field;
+		if(cells == null) {
+			return field;
+		}
+		if(fieldCopy == null) {
+			fieldCopy = new int[ROWS][COLS];
+		}
+		for(int r = 0; r < ROWS; r++) {
+			System.arraycopy(cells, r*COLS, fieldCopy[r], 0, COLS);
+		}
+		return fieldCopy;
+	}
+	
+	public int getCell(int row, int col) {
+		return cells != null ? cells[row*COLS+col] : field[row][col];
+	}
+	
+	//writes the occupied squares of each row as a bit mask (bit c for column c) into rows
+	public void getRows(int[] rows) {
+		System.arraycopy(rowMasks, 0, rows, 0, ROWS);
 	}
 
 	public int[] getTop() {
 		return top;
 	}
+	
+	public long getHash() {
+		return hash;
+	}
 
     public static int[] getpOrients() {
         return pOrients;
@@ -144,6 +187,10 @@ public class State {
 		return nextPiece;
 	}
 	
+	public int getPreviewPiece() {
+		return previewPiece;
+	}
+	
 	public boolean hasLost() {
 		return lost;
 	}
@@ -160,13 +207,75 @@ public class State {
 	
 	//constructor
 	public State() {
+		this(ThreadLocalRandom.current().nextLong());
+	}
+	
+	//the same seed always plays the same sequence of pieces
+	public State(long seed) {
+		this(new SeededPieceSource(seed));
+	}
+	
+	public State(PieceSource pieces) {
+		this(pieces, false);
+	}
+	
+	//flatField keeps the squares in one array instead of a row array per row
+	public State(PieceSource pieces, boolean flatField) {
+		this.pieces = pieces;
+		if(flatField) {
+			cells = new int[ROWS*COLS];
+		} else {
+			cells = null;
+			field = new int[ROWS][COLS];
+		}
 		nextPiece = randomPiece();
-
+		previewPiece = randomPiece();
+	}
+	
+	//starts a new game on the same board storage, drawing pieces on from the same source
+	public void reset() {
+		//cells at or above the top of a column are always empty
+		for(int c = 0; c < COLS; c++) {
+			for(int r = 0; r < top[c]; r++) {
+				setCell(r,c,0);
+			}
+			top[c] = 0;
+		}
+		Arrays.fill(rowMasks, 0);
+		hash = 0;
+		turn = 0;
+		cleared = 0;
+		lost = false;
+		nextPiece = randomPiece();
+		previewPiece = randomPiece();
+	}
+	
+	//starts a new game with the pieces of seed, as new State(seed) would
+	public void reset(long seed) {
+		if(pieces instanceof SeededPieceSource) {
+			((SeededPieceSource) pieces).reseed(seed);
+		} else {
+			pieces = new SeededPieceSource(seed);
+		}
+		reset();
+	}
+	
+	public void reset(PieceSource pieces) {
+		this.pieces = pieces;
+		reset();
+	}
+	
+	private void setCell(int row, int col, int value) {
+		if(cells != null) {
+			cells[row*COLS+col] = value;
+		} else {
+			field[row][col] = value;
+		}
 	}
 	
 	//random integer, returns 0-6
 	private int randomPiece() {
-		return (int)(Math.random()*N_PIECES);
+		return pieces.nextPiece();
 	}
 	
 
@@ -177,6 +286,11 @@ public class State {
 		return legalMoves[nextPiece];
 	}
 	
+	//legal moves of any piece type
+	public static int[][] legalMoves(int piece) {
+		return legalMoves[piece];
+	}
+	
 	//make a move based on the move index - its order in the legalMoves list
 	public void makeMove(int move) {
 		makeMove(legalMoves[nextPiece][move]);
@@ -190,67 +304,82 @@ public class State {
 	//returns false if you lose - true otherwise
 	public boolean makeMove(int orient, int slot) {
 		turn++;
-		//height if the first column makes contact
-		int height = top[slot]-pBottom[nextPiece][orient][0];
-		//for each column beyond the first in the piece
-		for(int c = 1; c < pWidth[nextPiece][orient];c++) {
-			height = Math.max(height,top[slot+c]-pBottom[nextPiece][orient][c]);
-		}
+		//the piece's shape at this slot, see Placements
+		int[] table = Placements.table();
+		int placement = Placements.index(nextPiece, orient, slot);
+		int width = table[placement+Placements.WIDTH];
+		int pieceHeight = table[placement+Placements.HEIGHT];
+		//height if the first column makes contact, raised by any column beyond the first
+		int height = Placements.landingHeight(top, placement);
 		
 		//check if game ended
-		if(height+pHeight[nextPiece][orient] >= ROWS) {
+		if(height+pieceHeight >= ROWS) {
 			lost = true;
 			return false;
 		}
 
 		
 		//for each column in the piece - fill in the appropriate blocks
-		for(int i = 0; i < pWidth[nextPiece][orient]; i++) {
+		for(int i = 0; i < width; i++) {
 			
 			//from bottom to top of brick
-			for(int h = height+pBottom[nextPiece][orient][i]; h < height+pTop[nextPiece][orient][i]; h++) {
-				field[h][i+slot] = turn;
+			for(int h = height+table[placement+Placements.BOTTOM+i]; h < height+table[placement+Placements.TOP+i]; h++) {
+				setCell(h,i+slot,turn);
 			}
 		}
 		
 		//adjust top
-		for(int c = 0; c < pWidth[nextPiece][orient]; c++) {
-			top[slot+c]=height+pTop[nextPiece][orient][c];
+		for(int c = 0; c < width; c++) {
+			top[slot+c]=height+table[placement+Placements.TOP+c];
+		}
+		
+		for(int h = 0; h < pieceHeight; h++) {
+			rowMasks[height+h] |= table[placement+Placements.ROW_MASKS+h];
+			hash ^= TranspositionTable.rowKey(height+h, table[placement+Placements.ROW_MASKS+h]);
 		}
 		
 		int rowsCleared = 0;
 		
 		//check for full rows - starting at the top
-		for(int r = height+pHeight[nextPiece][orient]-1; r >= height; r--) {
+		for(int r = height+pieceHeight-1; r >= height; r--) {
 			//check all columns in the row
-			boolean full = true;
-			for(int c = 0; c < COLS; c++) {
-				if(field[r][c] == 0) {
-					full = false;
-					break;
-				}
-			}
+			boolean full = rowMasks[r] == (1 << COLS) - 1;
 			//if the row was full - remove it and slide above stuff down
 			if(full) {
 				rowsCleared++;
 				cleared++;
+				System.arraycopy(rowMasks, r+1, rowMasks, r, ROWS-1-r);
+				rowMasks[ROWS-1] = 0;
+				if(cells != null) {
+					//slide all rows above down at once
+					System.arraycopy(cells, (r+1)*COLS, cells, r*COLS, (ROWS-1-r)*COLS);
+					Arrays.fill(cells, (ROWS-1)*COLS, ROWS*COLS, 0);
+				}
 				//for each column
 				for(int c = 0; c < COLS; c++) {
 
 					//slide down all bricks
-					for(int i = r; i < top[c]; i++) {
-						field[i][c] = field[i+1][c];
+					if(cells == null) {
+						for(int i = r; i < top[c]; i++) {
+							field[i][c] = field[i+1][c];
+						}
 					}
 					//lower the top
 					top[c]--;
-					while(top[c]>=1 && field[top[c]-1][c]==0)	top[c]--;
+					while(top[c]>=1 && getCell(top[c]-1,c)==0)	top[c]--;
 				}
 			}
 		}
+		
+		//every square above a cleared row has moved
+		if(rowsCleared > 0) {
+			hash = TranspositionTable.hash(rowMasks);
+		}
 	
 
 		//pick a new piece
-		nextPiece = randomPiece();
+		nextPiece = previewPiece;
+		previewPiece = randomPiece();
 		
 
 		
@@ -270,7 +399,7 @@ public class State {
 				
 		for(int c = 0; c < COLS; c++) {
 			for(int r = 0; r < top[c]; r++) {
-				if(field[r][c] != 0) {
+				if(getCell(r,c) != 0) {
 					drawBrick(c,r);
 				}
 			}
@@ -287,10 +416,9 @@ public class State {
 		
 	}
 	
-	public static final Color brickCol = Color.gray; 
-	
+	//looked up in drawBrick so that headless games never load java.awt
 	private void drawBrick(int c, int r) {
-		label.filledRectangleLL(c, r, 1, 1, brickCol);
+		label.filledRectangleLL(c, r, 1, 1, Color.gray);
 		label.rectangleLL(c, r, 1, 1);
 	}
 	
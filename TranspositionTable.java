@@ -0,0 +1,204 @@
+import java.util.concurrent.atomic.LongAdder;
+
+// Bounded cache of search values keyed by a Zobrist hash of the board occupancy. The
+// same board comes up again and again in a search (different move orders, line clears
+// leading to the same stack) and across the games of one agent, so its value only
+// has to be computed once. Values depend on the weights they were computed with, use
+// one table per weight vector.
+//
+// The slots are split into sets of WAYS entries; a key can only live in the set picked
+// by its low bits, which is guarded by one of STRIPES locks, so threads only contend
+// when they hit the same stripe. A full set evicts with the clock algorithm: every hit
+// marks an entry as referenced, and the hand skips (and unmarks) referenced entries.
+public class TranspositionTable {
+
+    private static final int WAYS = 4;
+    private static final int STRIPES = 64;
+
+    private static final byte EMPTY = 0;
+    private static final byte PRESENT = 1;
+    private static final byte REFERENCED = 2;
+
+    // Zobrist keys for every 5 cell half row pattern, so a row hashes with two lookups
+    private static final int HALF = State.COLS / 2;
+    private static final long[] ROW_KEYS = new long[State.ROWS * 2 << HALF];
+    // mixed into a board hash to key values that also depend on a piece or a move
+    private static final long[] PIECE_KEYS = new long[State.N_PIECES];
+    private static final long[] MOVE_KEYS = new long[State.N_PIECES * 4 * State.COLS];
+
+    static {
+        long[] cellKeys = new long[State.ROWS * State.COLS];
+        long counter = 0;
+        for (int i = 0; i < cellKeys.length; i++) {
+            cellKeys[i] = SeededPieceSource.mix(++counter * 0x9e3779b97f4a7c15L);
+        }
+        for (int r = 0; r < State.ROWS; r++) {
+            for (int half = 0; half < 2; half++) {
+                for (int pattern = 0; pattern < (1 << HALF); pattern++) {
+                    long key = 0;
+                    for (int c = 0; c < HALF; c++) {
+                        if ((pattern & (1 << c)) != 0) {
+                            key ^= cellKeys[r * State.COLS + half * HALF + c];
+                        }
+                    }
+                    ROW_KEYS[((r * 2 + half) << HALF) + pattern] = key;
+                }
+            }
+        }
+        for (int i = 0; i < PIECE_KEYS.length; i++) {
+            PIECE_KEYS[i] = SeededPieceSource.mix(++counter * 0x9e3779b97f4a7c15L);
+        }
+        for (int i = 0; i < MOVE_KEYS.length; i++) {
+            MOVE_KEYS[i] = SeededPieceSource.mix(++counter * 0x9e3779b97f4a7c15L);
+        }
+    }
+
+    private final int setMask;
+    private final long[] keys;
+    private final double[] values;
+    private final byte[] flags;
+    // clock hand of each set
+    private final byte[] hands;
+    private final Object[] locks = new Object[STRIPES];
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // capacity is rounded up to a power of two
+    public TranspositionTable(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(STRIPES, (capacity + WAYS - 1) / WAYS) - 1) << 1;
+        setMask = sets - 1;
+        keys = new long[sets * WAYS];
+        values = new double[sets * WAYS];
+        flags = new byte[sets * WAYS];
+        hands = new byte[sets];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Stored value of key, or NaN if it is not in the table
+    public double get(long key) {
+        int set = (int) key & setMask;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int slot = set * WAYS; slot < set * WAYS + WAYS; slot++) {
+                if (flags[slot] != EMPTY && keys[slot] == key) {
+                    flags[slot] = REFERENCED;
+                    hits.increment();
+                    return values[slot];
+                }
+            }
+        }
+        misses.increment();
+        return Double.NaN;
+    }
+
+    public void put(long key, double value) {
+        int set = (int) key & setMask;
+        int first = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int free = -1;
+            for (int slot = first; slot < first + WAYS; slot++) {
+                if (flags[slot] == EMPTY) {
+                    free = free < 0 ? slot : free;
+                } else if (keys[slot] == key) {
+                    values[slot] = value;
+                    return;
+                }
+            }
+            if (free < 0) {
+                int hand = hands[set];
+                while (flags[first + hand] == REFERENCED) {
+                    flags[first + hand] = PRESENT;
+                    hand = (hand + 1) % WAYS;
+                }
+                free = first + hand;
+                hands[set] = (byte) ((hand + 1) % WAYS);
+                evictions.increment();
+            }
+            keys[free] = key;
+            values[free] = value;
+            flags[free] = PRESENT;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            synchronized (locks[i]) {
+                for (int set = i; set <= setMask; set += STRIPES) {
+                    for (int slot = set * WAYS; slot < set * WAYS + WAYS; slot++) {
+                        flags[slot] = EMPTY;
+                    }
+                    hands[set] = 0;
+                }
+            }
+        }
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public double getHitRate() {
+        long lookups = getHits() + getMisses();
+        return lookups == 0 ? 0 : (double) getHits() / lookups;
+    }
+
+    // ==============================================
+    // Keys
+    // ==============================================
+
+    // Zobrist hash of the occupied cells of a board given as row masks
+    public static long hash(int[] rows) {
+        long h = 0;
+        for (int r = 0; r < State.ROWS; r++) {
+            h ^= rowKey(r, rows[r]);
+        }
+        return h;
+    }
+
+    // Same hash for a State field, which holds turn numbers rather than just occupancy
+    public static long hash(int[][] field) {
+        long h = 0;
+        for (int r = 0; r < State.ROWS; r++) {
+            int row = 0;
+            for (int c = 0; c < State.COLS; c++) {
+                if (field[r][c] != 0) {
+                    row |= 1 << c;
+                }
+            }
+            h ^= rowKey(r, row);
+        }
+        return h;
+    }
+
+    // Zobrist key of the cells of mask in row r; keys of disjoint cells combine by xor, so a
+    // board hash can be updated as cells change instead of recomputed
+    public static long rowKey(int r, int row) {
+        return ROW_KEYS[(r * 2 << HALF) + (row & ((1 << HALF) - 1))]
+                ^ ROW_KEYS[((r * 2 + 1) << HALF) + (row >>> HALF)];
+    }
+
+    // key for a value of the board that depends on which piece comes next
+    public static long key(long boardHash, int piece) {
+        return boardHash ^ PIECE_KEYS[piece];
+    }
+
+    // key for a value of playing piece at orient/slot on the board
+    public static long key(long boardHash, int piece, int orient, int slot) {
+        return boardHash ^ MOVE_KEYS[(piece * 4 + orient) * State.COLS + slot];
+    }
+}
@@ -0,0 +1,50 @@
+// Picks the turn cap (MAX_TURNS) of each generation so that it takes about
+// budgetSeconds of wall time, from what the previous generation cost.
+//
+// Game lengths are modelled as exponential: a game is lost on each turn with the same
+// hazard. Games stopped by the cap are censored, so the maximum likelihood hazard is
+// the games lost divided by all turns played, capped games included. A game under a cap
+// c then lasts (1 - e^(-hazard c)) / hazard turns on average, and a generation costs
+// that many turns per game at the seconds per turn just measured. The cap is the
+// largest one whose predicted cost fits the budget.
+//
+// The cap moves by at most a factor of 2 per generation, since the hazard is
+// re-estimated each time and improving agents lower it, and never goes below minTurns
+// so that strong agents stay separated.
+public class TurnCapController {
+
+    private static final double MAX_STEP = 2;
+
+    private final double budgetSeconds;
+    private final int minTurns;
+    private final int maxTurns;
+
+    public TurnCapController(double budgetSeconds, int minTurns, int maxTurns) {
+        this.budgetSeconds = budgetSeconds;
+        this.minTurns = minTurns;
+        this.maxTurns = maxTurns;
+    }
+
+    // Cap for the next generation. The last one played games under cap (0 for none),
+    // turns in total, lost of them before the cap and took seconds.
+    public int nextCap(int cap, int games, long turns, int lost, double seconds) {
+        if (games == 0 || turns == 0 || seconds <= 0) {
+            return cap;
+        }
+        double hazard = hazard(turns, lost);
+        // average turns per game the budget pays for
+        double affordable = budgetSeconds / (seconds / turns) / games;
+        double next = hazard * affordable >= 1
+                ? Double.POSITIVE_INFINITY
+                : (hazard == 0 ? affordable : -Math.log1p(-hazard * affordable) / hazard);
+        if (cap > 0) {
+            next = Math.max(cap / MAX_STEP, Math.min(cap * MAX_STEP, next));
+        }
+        return (int) Math.max(minTurns, Math.min(maxTurns, Math.round(next)));
+    }
+
+    // losses per turn played, censored maximum likelihood estimate
+    public static double hazard(long turns, int lost) {
+        return turns == 0 ? 0 : (double) lost / turns;
+    }
+}
@@ -0,0 +1,13 @@
+package alphatetris;
+
+import java.util.function.LongSupplier;
+
+// The engine's benchmarks as seen from a named package. The engine is in the default
+// package, which code in a named package (the JMH module in jmh/) cannot refer to, so
+// Benchmark implements this interface and is registered for java.util.ServiceLoader in
+// META-INF/services/alphatetris.BenchmarkSuite.
+public interface BenchmarkSuite {
+
+    // the benchmark called name, throws IllegalArgumentException if there is none
+    LongSupplier benchmark(String name);
+}
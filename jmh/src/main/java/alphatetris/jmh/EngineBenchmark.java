@@ -0,0 +1,73 @@
+package alphatetris.jmh;
+
+import alphatetris.BenchmarkSuite;
+import java.util.ServiceLoader;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// JMH runs of the engine benchmarks defined in Benchmark.java, run with
+//     java -jar jmh/target/benchmarks.jar -prof gc [-p name=<BENCHMARK>]
+// for ops/s and the allocation rate of each.
+//
+// JMH needs benchmark classes in a named package, and a named package cannot refer to
+// the engine's classes in the default package, so each benchmark is looked up once per
+// trial through the BenchmarkSuite the engine jar registers. Every benchmark runs in its own forks, where the
+// supplier has a single implementation and is inlined into JMH's measurement loop; the
+// result goes to JMH's blackhole.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EngineBenchmark {
+
+    // the names Benchmark registers; PlacementKernel.vector needs the vector classes on the classpath
+    @Param({
+            "State.makeMove",
+            "State.makeMove.flat",
+            "BitboardState.makeMove",
+            "PlayerSkeleton.pickMove",
+            "PlacementKernel.scalar",
+            "PlayerSkeleton.getRowBreaks(int[][])",
+            "PlayerSkeleton.getColumnBreaks(int[][])",
+            "PlayerSkeleton.getNumberOfHoles(int[][])",
+            "PlayerSkeleton.getWellHole(int[][])",
+            "PlayerSkeleton.getRowBreaks(int[])",
+            "PlayerSkeleton.getColumnBreaks(int[])",
+            "PlayerSkeleton.getNumberOfHoles(int[])",
+            "PlayerSkeleton.getWellHole(int[])",
+            "Features.extract",
+            "IncrementalFeatures.recompute",
+            "TranspositionTable.hash",
+            "TranspositionTable.get",
+            "game.state.fixedSeed.2000",
+            "game.fixedSeed.2000",
+    })
+    public String name;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setup() {
+        BenchmarkSuite suite = ServiceLoader.load(BenchmarkSuite.class).findFirst()
+                .orElseThrow(() -> new IllegalStateException("No BenchmarkSuite on the classpath, build the engine jar"));
+        op = suite.benchmark(name);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}
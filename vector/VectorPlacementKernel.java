@@ -0,0 +1,276 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// PlacementKernel on the incubating Vector API. Each SIMD lane holds one slot of one
+// orientation of the piece (16 slots with AVX-512, so one vector per orientation), and
+// the terms IncrementalFeatures.extract computes one placement at a time are computed
+// for all lanes together: the columns and rows the piece lands in are merged with the
+// piece cells, and their transitions and well depths counted with SWAR popcounts.
+// Placements that clear a line shift the whole board and are rescored by
+// PlayerSkeleton.evaluateMove.
+//
+// Lane i of a vector reads board column slot + k from a walled copy of the board at
+// offset k, so every load is contiguous; the JDK 17 JIT does not compile indexed
+// gathers into SIMD instructions. Only the rows under each landing height are copied
+// into lane order with a short scalar loop.
+//
+// A vector is only allocation free while it stays inside one compiled method: passed to
+// a call the JIT did not inline, it is boxed. The JIT stops inlining our own methods once
+// a compilation grows large, so no method here takes, returns or stores a vector - every
+// term is a method of its own that loads its lanes from int arrays and stores them back,
+// and the kernel allocates nothing per call (PlacementKernel.vector reports 0 B/op).
+//
+// The features are written out here rather than taken from FeatureRegistry's terms, so
+// the kernel only loads while exactly the seven features Features names are registered
+// and selected. Compiled and run with --add-modules jdk.incubator.vector, see the
+// README. Use one instance per thread.
+public class VectorPlacementKernel implements PlacementKernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private static final int COLS = State.COLS;
+    private static final int ROWS = State.ROWS;
+    private static final int FULL_ROW = BitboardState.FULL_ROW;
+    private static final int MAX_SIZE = 4;
+
+    private static final int WALLS = 1 | (1 << (COLS + 1));
+    private static final int WALLED_PAIRS = (1 << (COLS + 1)) - 1;
+    private static final int COUNTED_ROWS = (1 << (ROWS - 1)) - 1;
+    private static final int ALL_ROWS = (1 << ROWS) - 1;
+    private static final int WALL_COLUMN = (1 << ROWS) - 1;
+
+    // board column c is at index c + PAD of the walled copies, which have walls
+    // (or empty columns for top) on both sides, wide enough for a whole vector of
+    // slots at any offset a piece column or well neighbour can have
+    private static final int PAD = 2;
+    private static final int PADDED = PAD + COLS + MAX_SIZE + LANES;
+
+    // lane indices, the offset of each lane's slot from the first
+    private static final int[] LANE_INDEX = laneIndices();
+
+    private final int[] walledTop = new int[PADDED];
+    private final int[] walledColumns = new int[PADDED];
+    private final int[] walledColumnBreaks = new int[PADDED];
+    private final int[] walledWells = new int[PADDED];
+    private final int[] baseRowBreaks = new int[ROWS];
+    private final int[] baseFeatures = new int[Features.COUNT];
+    // rows[height + k] of each lane
+    private final int[][] landingRows = new int[MAX_SIZE][LANES];
+    private final int[] heights = new int[LANES];
+    // board column slot + j of each lane with the piece cells in it, at index j + 2
+    private final int[][] candidates = new int[MAX_SIZE + 4][LANES];
+    // masks whose bits are being counted
+    private final int[] counts = new int[LANES];
+
+    // features of each placement of the current vector
+    private final int[] landing = new int[LANES];
+    private final int[] rowBreaks = new int[LANES];
+    private final int[] columnBreaks = new int[LANES];
+    private final int[] holes = new int[LANES];
+    private final int[] wells = new int[LANES];
+    private final int[] pileHeight = new int[LANES];
+    // 1 where the placement fills a row
+    private final int[] clears = new int[LANES];
+    private final SearchScratch scratch = new SearchScratch();
+
+    public VectorPlacementKernel() {
+        if (!FeatureRegistry.isNamedSetSelected()) {
+            throw new IllegalStateException("VectorPlacementKernel only scores the features Features names");
+        }
+        for (int i = 0; i < PADDED; i++) {
+            walledColumns[i] = WALL_COLUMN;
+        }
+    }
+
+    @Override
+    public void scoreAll(int[] rows, int[] top, IncrementalFeatures base, int piece, double[] weights,
+                         double[] scores) {
+        System.arraycopy(top, 0, walledTop, PAD, COLS);
+        System.arraycopy(base.columnMasks(), 0, walledColumns, PAD, COLS);
+        base.columnTerms(Features.COLUMN_BREAKS, walledColumnBreaks, PAD);
+        base.columnTerms(Features.WELL_DEPTH, walledWells, PAD);
+        base.rowTerms(Features.ROW_BREAKS, baseRowBreaks, 0);
+        base.totals(baseFeatures);
+
+        int[] table = Placements.table();
+        int move = 0;
+        for (int orient = 0; orient < State.getpOrients()[piece]; orient++) {
+            int p = Placements.index(piece, orient, 0);
+            int width = table[p + Placements.WIDTH];
+            int slots = COLS + 1 - width;
+            for (int first = 0; first < slots; first += LANES) {
+                scoreSlots(rows, top, base, piece, orient, p, first, Math.min(LANES, slots - first), weights,
+                        scores, move + first);
+            }
+            move += slots;
+        }
+    }
+
+    // Scores slots first .. first + count - 1 of the orientation whose slot 0 placement is p
+    private void scoreSlots(int[] rows, int[] top, IncrementalFeatures base, int piece, int orient, int p,
+                            int first, int count, double[] weights, double[] scores, int move) {
+        landingHeights(p, first);
+        landingRows(rows, p, count);
+        pieceColumns(p, first);
+        rowTerms(p, first);
+        columnTerms(p, first);
+        wellTerms(p, first);
+
+        int topsOut = ROWS - Placements.table()[p + Placements.HEIGHT];
+        for (int lane = 0; lane < count; lane++) {
+            int i = move + lane;
+            if (heights[lane] >= topsOut) {
+                scores[i] = PlayerSkeleton.LOSS;
+            } else if (clears[lane] != 0) {
+                scores[i] = PlayerSkeleton.evaluateMove(rows, top, base, piece, orient, first + lane, weights,
+                        scratch);
+            } else {
+                // same order of operations as Features.score, no rows cleared
+                double score = 0;
+                score += landing[lane] * weights[Features.LANDING_HEIGHT];
+                score += rowBreaks[lane] * weights[Features.ROW_BREAKS];
+                score += columnBreaks[lane] * weights[Features.COLUMN_BREAKS];
+                score += holes[lane] * weights[Features.HOLES];
+                score += wells[lane] * weights[Features.WELL_DEPTH];
+                score += pileHeight[lane] * weights[Features.PILE_HEIGHT];
+                scores[i] = score;
+            }
+        }
+    }
+
+    // heights and landing: the highest top[slot + k] - bottom[k], and the landing height feature
+    private void landingHeights(int p, int first) {
+        int[] table = Placements.table();
+        IntVector height = IntVector.zero(SPECIES);
+        for (int k = 0; k < table[p + Placements.WIDTH]; k++) {
+            IntVector columnTop = IntVector.fromArray(SPECIES, walledTop, PAD + first + k);
+            height = height.max(columnTop.sub(table[p + Placements.BOTTOM + k]));
+        }
+        height.intoArray(heights, 0);
+        height.add((table[p + Placements.HEIGHT] - 1) / 2).intoArray(landing, 0);
+    }
+
+    // rows[height + k] of each lane, 0 above the board, and rowBreaks without the
+    // breaks of those rows, which rowTerms counts again once the piece is in them
+    private void landingRows(int[] rows, int p, int count) {
+        int pieceHeight = Placements.table()[p + Placements.HEIGHT];
+        for (int lane = 0; lane < count; lane++) {
+            int h = heights[lane];
+            int breaks = baseFeatures[Features.ROW_BREAKS];
+            for (int k = 0; k < pieceHeight; k++) {
+                if (h + k < ROWS) {
+                    landingRows[k][lane] = rows[h + k];
+                    breaks -= baseRowBreaks[h + k];
+                } else {
+                    landingRows[k][lane] = 0;
+                }
+            }
+            rowBreaks[lane] = breaks;
+        }
+    }
+
+    // candidates of the columns from slot - 2 to slot + width + 1, walls outside the board
+    private void pieceColumns(int p, int first) {
+        int width = Placements.table()[p + Placements.WIDTH];
+        IntVector height = IntVector.fromArray(SPECIES, heights, 0);
+        for (int j = -2; j <= width + 1; j++) {
+            IntVector column = IntVector.fromArray(SPECIES, walledColumns, PAD + first + j);
+            if (j >= 0 && j < width) {
+                column = column.or(IntVector.broadcast(SPECIES, Placements.columnMask(p, j, 0))
+                        .lanewise(VectorOperators.LSHL, height));
+            }
+            column.intoArray(candidates[j + 2], 0);
+        }
+    }
+
+    // rowBreaks of the rows the piece lands in, and clears set where one becomes full
+    private void rowTerms(int p, int first) {
+        int[] table = Placements.table();
+        IntVector slot = IntVector.fromArray(SPECIES, LANE_INDEX, 0).add(first);
+        IntVector total = IntVector.fromArray(SPECIES, rowBreaks, 0);
+        IntVector full = IntVector.zero(SPECIES);
+        for (int k = 0; k < table[p + Placements.HEIGHT]; k++) {
+            IntVector row = IntVector.fromArray(SPECIES, landingRows[k], 0)
+                    .or(IntVector.broadcast(SPECIES, table[p + Placements.ROW_MASKS + k])
+                            .lanewise(VectorOperators.LSHL, slot));
+            // a row never exceeds FULL_ROW, so row + 1 reaches bit COLS only when it is full
+            full = full.or(row.add(1).lanewise(VectorOperators.LSHR, COLS));
+            IntVector walled = row.lanewise(VectorOperators.LSHL, 1).or(WALLS);
+            walled.lanewise(VectorOperators.XOR, walled.lanewise(VectorOperators.LSHR, 1)).and(WALLED_PAIRS)
+                    .intoArray(counts, 0);
+            bitCounts(counts);
+            total = total.add(IntVector.fromArray(SPECIES, counts, 0));
+        }
+        total.intoArray(rowBreaks, 0);
+        full.intoArray(clears, 0);
+    }
+
+    // columnBreaks, holes and pileHeight of the columns the piece lands in
+    private void columnTerms(int p, int first) {
+        int[] table = Placements.table();
+        IntVector height = IntVector.fromArray(SPECIES, heights, 0);
+        IntVector breaks = IntVector.broadcast(SPECIES, baseFeatures[Features.COLUMN_BREAKS]);
+        IntVector holeCount = IntVector.broadcast(SPECIES, baseFeatures[Features.HOLES]);
+        IntVector pile = IntVector.broadcast(SPECIES, baseFeatures[Features.PILE_HEIGHT]);
+        for (int k = 0; k < table[p + Placements.WIDTH]; k++) {
+            IntVector column = IntVector.fromArray(SPECIES, candidates[k + 2], 0);
+            // bit r of the shifted column is the cell below row r, with the floor counted as filled
+            IntVector below = column.lanewise(VectorOperators.LSHL, 1).or(1);
+            column.lanewise(VectorOperators.XOR, below).and(COUNTED_ROWS).intoArray(counts, 0);
+            bitCounts(counts);
+            // an empty top cell adds ROWS - 1, as in getColumnBreaks
+            IntVector topEmpty = column.lanewise(VectorOperators.LSHR, ROWS - 1).and(1)
+                    .lanewise(VectorOperators.XOR, 1);
+            breaks = breaks.add(IntVector.fromArray(SPECIES, counts, 0)).add(topEmpty.mul(ROWS - 1))
+                    .sub(IntVector.fromArray(SPECIES, walledColumnBreaks, PAD + first + k));
+            // the column grows to height + top[k] with top[k] - bottom[k] new cells
+            IntVector columnTop = IntVector.fromArray(SPECIES, walledTop, PAD + first + k);
+            holeCount = holeCount.add(height.add(table[p + Placements.BOTTOM + k]).sub(columnTop));
+            pile = pile.max(height.add(table[p + Placements.TOP + k]));
+        }
+        breaks.intoArray(columnBreaks, 0);
+        holeCount.intoArray(holes, 0);
+        pile.intoArray(pileHeight, 0);
+    }
+
+    // Wells of the columns from slot - 1 to slot + width; a wall has no wells, so the
+    // columns off the board add 0. A well cell counts itself plus the empty cells right
+    // below it: after s steps the cells still set have s empty cells below them
+    private void wellTerms(int p, int first) {
+        int width = Placements.table()[p + Placements.WIDTH];
+        IntVector total = IntVector.broadcast(SPECIES, baseFeatures[Features.WELL_DEPTH]);
+        for (int j = -1; j <= width; j++) {
+            IntVector empty = IntVector.fromArray(SPECIES, candidates[j + 2], 0).not().and(ALL_ROWS);
+            IntVector cells = empty.and(IntVector.fromArray(SPECIES, candidates[j + 1], 0))
+                    .and(IntVector.fromArray(SPECIES, candidates[j + 3], 0)).and(COUNTED_ROWS);
+            total = total.sub(IntVector.fromArray(SPECIES, walledWells, PAD + first + j));
+            while (cells.compare(VectorOperators.NE, 0).anyTrue()) {
+                cells.intoArray(counts, 0);
+                bitCounts(counts);
+                total = total.add(IntVector.fromArray(SPECIES, counts, 0));
+                empty = empty.lanewise(VectorOperators.LSHL, 1);
+                cells = cells.and(empty);
+            }
+        }
+        total.intoArray(wells, 0);
+    }
+
+    // Replaces each lane of masks by its number of set bits
+    private static void bitCounts(int[] masks) {
+        IntVector v = IntVector.fromArray(SPECIES, masks, 0);
+        v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x55555555));
+        v = v.and(0x33333333).add(v.lanewise(VectorOperators.LSHR, 2).and(0x33333333));
+        v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0f0f0f0f);
+        v.mul(0x01010101).lanewise(VectorOperators.LSHR, 24).intoArray(masks, 0);
+    }
+
+    private static int[] laneIndices() {
+        int[] index = new int[LANES];
+        for (int i = 0; i < LANES; i++) {
+            index[i] = i;
+        }
+        return index;
+    }
+}